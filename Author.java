@@ -1,4 +1,9 @@
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Represents an author who writes books.
@@ -6,12 +11,19 @@ import java.util.ArrayList;
 
 public class Author{
 
-    private static int nextId = 1;
+    private static final AtomicInteger nextId = new AtomicInteger(1);
 
     private int authorId;
     private String name;
+    private String nameKey; // Interned search key of the name, see SearchKeys
     private String dateOfBirth;
-    private ArrayList <Book> writtenBooks;
+    // Books in a library are recorded by ID with the library that holds them, so an author doesn't keep
+    // all their books in memory when the library's store makes them on demand. Books that are in no
+    // library are kept as they are. Several libraries, such as the shards of a cluster, may change them at
+    // once, so both are guarded by the author's lock. It is only held while they are read or changed,
+    // never while calling a library, since libraries call in while holding their catalog locks.
+    private LinkedHashMap <Integer, Library> writtenBooks;
+    private LinkedHashSet <Book> unfiledBooks;
 
     /**
      * Constructs an Author object with the specified name and date of birth.
@@ -22,10 +34,45 @@ public class Author{
 
     public Author(String name, String dateOfBirth){
 
-        this.authorId = nextId++;
+        this(nextId.getAndIncrement(), name, dateOfBirth);
+    }
+
+    /**
+     * Constructs an Author object that keeps an ID it was given before, such as one restored from a snapshot.
+     *
+     * @param authorId     The ID of the author.
+     * @param name         The name of the author.
+     * @param dateOfBirth  The date of birth of the author.
+     */
+
+    Author(int authorId, String name, String dateOfBirth){
+
+        this.authorId = authorId;
         this.name = name;
+        this.nameKey = SearchKeys.intern(name);
         this.dateOfBirth = dateOfBirth;
-        this.writtenBooks = new ArrayList<>();    
+        this.writtenBooks = new LinkedHashMap<>();
+        this.unfiledBooks = new LinkedHashSet<>();    
+    }
+
+    /**
+     * Gets the ID the next new author will get.
+     *
+     * @return The next author ID.
+     */
+
+    static int peekNextId(){
+        return nextId.get();
+    }
+
+    /**
+     * Makes sure new authors get IDs of at least the given value, so they don't clash with restored ones.
+     *
+     * @param id The lowest ID new authors may get.
+     */
+
+    static void reserveIdsBelow(int id){
+        nextId.accumulateAndGet(id, Math::max);
     }
 
     /**
@@ -49,13 +96,48 @@ public class Author{
     }
 
     /**
-     * Sets the name of the author.
+     * Sets the name of the author. Their books are filed under the new name in every library that holds them.
      *
      * @param name The new name of the author.
      */
 
     public void setName(String name){
+        ArrayList<Library> libraries = new ArrayList<>();
+        synchronized (this) {
+            for (Library library : writtenBooks.values()) {
+                if (!libraries.contains(library)) {
+                    libraries.add(library);
+                }
+            }
+        }
+        libraries.sort(Library.LOCK_ORDER);
+        rename(libraries, 0, name);
+    }
+
+    // Each library refiles the author's books under the catalog lock it takes for the change; with books in
+    // several libraries the changes are nested, so the name changes once, with every library locked.
+
+    private void rename(List<Library> libraries, int next, String name){
+        if (next == libraries.size()) {
+            applyName(name);
+        } else {
+            libraries.get(next).rekey(this, () -> rename(libraries, next + 1, name));
+        }
+    }
+
+    private void applyName(String name){
         this.name = name;
+        this.nameKey = SearchKeys.intern(name);
+    }
+
+    /**
+     * Gets the search key of the name: the name case folded and without accents.
+     *
+     * @return The interned name key.
+     */
+
+    String getNameKey(){
+        return nameKey;
     }
 
     /**
@@ -84,8 +166,13 @@ public class Author{
      * @param book The book to be added.
      */
 
-    public void addWrittenBook(Book book){
-        writtenBooks.add(book);
+    public synchronized void addWrittenBook(Book book){
+        Library library = book.getLibrary();
+        if (library != null) {
+            writtenBooks.put(book.getBookId(), library);
+        } else {
+            unfiledBooks.add(book);
+        }
     }
 
     /**
@@ -95,19 +182,56 @@ public class Author{
      */
 
 
-    public void deleteWrittenBook(Book book){
-        writtenBooks.remove(book);
+    public synchronized void deleteWrittenBook(Book book){
+        writtenBooks.remove(book.getBookId());
+        unfiledBooks.remove(book);
     }
 
     /**
      * Gets a list of books written by the author.
      * 
-     * @return The list of books written by the author.
+     * @return A copy of the list of books written by the author.
      */
 
 
     public ArrayList <Book> getWrittenBooks(){
-        return writtenBooks;
+        ArrayList<Map.Entry<Integer, Library>> filed;
+        ArrayList<Book> unfiled;
+        synchronized (this) {
+            filed = new ArrayList<>(writtenBooks.size());
+            for (Map.Entry<Integer, Library> entry : writtenBooks.entrySet()) {
+                filed.add(Map.entry(entry.getKey(), entry.getValue()));
+            }
+            unfiled = new ArrayList<>(unfiledBooks);
+        }
+        // Looked up outside the lock, since each lookup may take the library's catalog lock
+        ArrayList<Book> books = new ArrayList<>(filed.size() + unfiled.size());
+        for (Map.Entry<Integer, Library> entry : filed) {
+            Book book = entry.getValue().findBookById(entry.getKey());
+            if (book != null) {
+                books.add(book);
+            }
+        }
+        books.addAll(unfiled);
+        return books;
+    }
+
+    /**
+     * Gets the IDs of the author's books held by one library. Used by that library, which may already
+     * hold its catalog lock and so can't look the books up through its public methods.
+     * 
+     * @param library The library.
+     * @return The IDs of the author's books in that library.
+     */
+
+    synchronized ArrayList<Integer> getWrittenBookIds(Library library){
+        ArrayList<Integer> ids = new ArrayList<>();
+        for (Map.Entry<Integer, Library> entry : writtenBooks.entrySet()) {
+            if (entry.getValue() == library) {
+                ids.add(entry.getKey());
+            }
+        }
+        return ids;
     }
 
     /**
@@ -0,0 +1,134 @@
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
+
+/**
+ * Tracks how many copies of each ISBN are available to borrow in one library, and which ones.
+ * Each ISBN has its own atomic counter, so borrowing and returning different titles never contend.
+ *
+ * Copies that come back on the shelf are also pushed on a free list for their ISBN, so any available copy
+ * can be found in constant time without looking at the others. A copy borrowed directly is not taken off
+ * the list at once: the list may hold copies that have since gone out, and whoever polls it checks the copy
+ * under its own lock and polls again if it is gone. When a list doubles in length, copies no longer
+ * available and repeats are swept out, so it never grows much past the copies actually on the shelf.
+ */
+
+public class AvailabilityTable {
+
+    private static final int MIN_SWEEP = 16;
+
+    private final Map<String, Shelf> availableByISBN;
+    private final BiPredicate<String, Integer> stillAvailable;
+
+    /**
+     * Constructs an empty AvailabilityTable.
+     *
+     * @param stillAvailable Tells whether a copy is still available under an ISBN, when a free list is swept.
+     */
+
+    public AvailabilityTable(BiPredicate<String, Integer> stillAvailable) {
+        this.availableByISBN = new ConcurrentHashMap<>();
+        this.stillAvailable = stillAvailable;
+    }
+
+    /**
+     * Gets the number of copies of an ISBN that are available to borrow.
+     *
+     * @param ISBN The ISBN to look up.
+     * @return The number of available copies, or 0 if the ISBN is unknown.
+     */
+
+    public int availableCopies(String ISBN) {
+        Shelf shelf = ISBN == null ? null : availableByISBN.get(ISBN);
+        return shelf == null ? 0 : shelf.count.get();
+    }
+
+    /**
+     * Records that a copy of an ISBN became available, and puts it on the ISBN's free list.
+     *
+     * @param ISBN   The ISBN of the copy.
+     * @param bookId The ID of the copy.
+     */
+
+    public void increment(String ISBN, int bookId) {
+        Shelf shelf = shelfFor(ISBN);
+        shelf.count.incrementAndGet();
+        synchronized (shelf) {
+            if (shelf.size == shelf.ids.length) {
+                sweep(ISBN, shelf);
+            }
+            shelf.ids[shelf.size++] = bookId;
+        }
+    }
+
+    /**
+     * Records that a copy of an ISBN is no longer available.
+     *
+     * @param ISBN The ISBN of the copy.
+     */
+
+    public void decrement(String ISBN) {
+        shelfFor(ISBN).count.decrementAndGet();
+    }
+
+    /**
+     * Takes the copy most recently put on an ISBN's free list. The copy may have been borrowed since, so the
+     * caller checks it is still available under its lock, and polls again if not.
+     *
+     * @param ISBN The ISBN.
+     * @return The ID of the copy, or -1 if the free list is empty.
+     */
+
+    public int poll(String ISBN) {
+        Shelf shelf = ISBN == null ? null : availableByISBN.get(ISBN);
+        if (shelf == null) {
+            return -1;
+        }
+        synchronized (shelf) {
+            return shelf.size == 0 ? -1 : shelf.ids[--shelf.size];
+        }
+    }
+
+    // Shelves are created once per ISBN and then only updated in place.
+
+    private Shelf shelfFor(String ISBN) {
+        Shelf shelf = availableByISBN.get(ISBN);
+        if (shelf == null) {
+            shelf = availableByISBN.computeIfAbsent(ISBN, k -> new Shelf());
+        }
+        return shelf;
+    }
+
+    // Drops the copies no longer available and the repeats from a full free list, keeping the rest in order,
+    // then makes room for as many again. Called under the shelf's lock. A copy that comes back during the
+    // sweep waits for the lock to push itself, so a copy on the shelf is never swept out.
+
+    private void sweep(String ISBN, Shelf shelf) {
+        Set<Integer> kept = new HashSet<>();
+        int size = 0;
+        for (int i = 0; i < shelf.size; i++) {
+            int bookId = shelf.ids[i];
+            if (stillAvailable.test(ISBN, bookId) && kept.add(bookId)) {
+                shelf.ids[size++] = bookId;
+            }
+        }
+        shelf.size = size;
+        int capacity = Math.max(MIN_SWEEP, size * 2);
+        if (capacity != shelf.ids.length) {
+            shelf.ids = Arrays.copyOf(shelf.ids, capacity);
+        }
+    }
+
+    // The count of available copies of one ISBN, and its free list as a stack of copy IDs.
+
+    private static final class Shelf {
+
+        final AtomicInteger count = new AtomicInteger();
+        int[] ids = new int[MIN_SWEEP];
+        int size;
+    }
+}
@@ -0,0 +1,122 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the values written by a BinaryWriter from a channel, a large chunk at a time.
+ */
+
+public class BinaryReader {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final ReadableByteChannel channel;
+    private ByteBuffer buffer;
+
+    /**
+     * Constructs a BinaryReader.
+     *
+     * @param channel The channel to read from.
+     */
+
+    public BinaryReader(ReadableByteChannel channel) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        this.buffer.flip();
+    }
+
+    /**
+     * Reads a byte.
+     *
+     * @return The value read.
+     * @throws IOException If the channel fails or ends first.
+     */
+
+    public byte readByte() throws IOException {
+        require(1);
+        return buffer.get();
+    }
+
+    /**
+     * Reads an int.
+     *
+     * @return The value read.
+     * @throws IOException If the channel fails or ends first.
+     */
+
+    public int readInt() throws IOException {
+        require(4);
+        return buffer.getInt();
+    }
+
+    /**
+     * Reads a long.
+     *
+     * @return The value read.
+     * @throws IOException If the channel fails or ends first.
+     */
+
+    public long readLong() throws IOException {
+        require(8);
+        return buffer.getLong();
+    }
+
+    /**
+     * Reads a string written by BinaryWriter.writeString.
+     *
+     * @return The value read, or null.
+     * @throws IOException If the channel fails or ends first.
+     */
+
+    public String readString() throws IOException {
+        int length = readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads exactly enough bytes to fill an array.
+     *
+     * @param bytes The array to fill.
+     * @throws IOException If the channel fails or ends first.
+     */
+
+    public void readFully(byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (!buffer.hasRemaining()) {
+                require(1);
+            }
+            int chunk = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.get(bytes, offset, chunk);
+            offset += chunk;
+        }
+    }
+
+    // Refills the buffer until it holds at least the given number of bytes.
+
+    private void require(int bytes) throws IOException {
+        while (buffer.remaining() < bytes) {
+            if (!fill()) {
+                throw new EOFException("Unexpected end of data: needed " + bytes + " bytes, " + buffer.remaining() + " left");
+            }
+        }
+    }
+
+    private boolean fill() throws IOException {
+        buffer.compact();
+        int read;
+        try {
+            read = channel.read(buffer);
+        } finally {
+            buffer.flip();
+        }
+        return read > 0;
+    }
+}
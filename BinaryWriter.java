@@ -0,0 +1,107 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes fixed-width numbers and length-prefixed UTF-8 strings to a channel through a direct buffer.
+ * Nothing reaches the channel until the buffer fills up or flush is called.
+ */
+
+public class BinaryWriter {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final WritableByteChannel channel;
+    private ByteBuffer buffer;
+
+    /**
+     * Constructs a BinaryWriter.
+     *
+     * @param channel The channel to write to.
+     */
+
+    public BinaryWriter(WritableByteChannel channel) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    /**
+     * Writes a byte.
+     *
+     * @param value The value to write.
+     * @throws IOException If writing to the channel fails.
+     */
+
+    public void writeByte(int value) throws IOException {
+        ensure(1);
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Writes an int.
+     *
+     * @param value The value to write.
+     * @throws IOException If writing to the channel fails.
+     */
+
+    public void writeInt(int value) throws IOException {
+        ensure(4);
+        buffer.putInt(value);
+    }
+
+    /**
+     * Writes a long.
+     *
+     * @param value The value to write.
+     * @throws IOException If writing to the channel fails.
+     */
+
+    public void writeLong(long value) throws IOException {
+        ensure(8);
+        buffer.putLong(value);
+    }
+
+    /**
+     * Writes a string as its UTF-8 length followed by its bytes. Null is written as length -1.
+     *
+     * @param value The value to write, or null.
+     * @throws IOException If writing to the channel fails.
+     */
+
+    public void writeString(String value) throws IOException {
+        if (value == null) {
+            writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensure(4 + bytes.length);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    /**
+     * Writes everything buffered so far to the channel.
+     *
+     * @throws IOException If writing to the channel fails.
+     */
+
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // Makes room for the next value, growing the buffer for values bigger than it.
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+            if (buffer.capacity() < bytes) {
+                buffer = ByteBuffer.allocateDirect(bytes);
+            }
+        }
+    }
+}
@@ -1,6 +1,5 @@
 import java.time.LocalDate;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Represents a book in the library.
@@ -8,16 +7,17 @@ import java.util.Map;
 
 public class Book implements Borrowable{
 
-    private static final Map<String, Integer> copiesByISBN = new HashMap<String, Integer>();
-
-    private static int nextId = 1;
+    private static final AtomicInteger nextId = new AtomicInteger(1);
     private int bookId;
     private String title;
+    private String titleKey; // Interned search key of the title, see SearchKeys
     private Author author;
     private String ISBN;
     private String publisher;
-    private Status bookStatus;
-    private LocalDate dueDate;
+    private volatile Status bookStatus;
+    private volatile LocalDate dueDate;
+    private volatile Library library;
+    private volatile Patron borrower;
 
     /**
      * Constructs a new Book object.
@@ -30,15 +30,75 @@ public class Book implements Borrowable{
 
     public Book(String title, Author author, String ISBN, String publisher) {
 
-        this.bookId = nextId++;
+        this(nextId.getAndIncrement(), title, author, ISBN, publisher);
+    }
+
+    /**
+     * Constructs a Book that keeps an ID it was given before, such as one restored from a snapshot.
+     * 
+     * @param bookId    The ID of the book.
+     * @param title     The title of the book.
+     * @param author    The author of the book.
+     * @param ISBN      The ISBN of the book.
+     * @param publisher The publisher of the book.
+     */
+
+    Book(int bookId, String title, Author author, String ISBN, String publisher) {
+
+        this(bookId, title, SearchKeys.intern(title), author, ISBN, publisher);
+    }
+
+    /**
+     * Constructs a Book whose title key is already known, such as one a book store makes from a stored row.
+     * 
+     * @param bookId    The ID of the book.
+     * @param title     The title of the book.
+     * @param titleKey  The interned search key of the title.
+     * @param author    The author of the book.
+     * @param ISBN      The ISBN of the book.
+     * @param publisher The publisher of the book.
+     */
+
+    Book(int bookId, String title, String titleKey, Author author, String ISBN, String publisher) {
+
+        this.bookId = bookId;
         this.title = title;
+        this.titleKey = titleKey;
         this.author = author;
         this.ISBN = ISBN;
         this.publisher = publisher;
         this.bookStatus = Status.AVAILABLE;
-       
-        copiesByISBN.putIfAbsent(ISBN, 0);
-        copiesByISBN.put(ISBN, copiesByISBN.get(ISBN) + 1);
+    }
+
+    /**
+     * Retrieves the ID the next new book will get.
+     * 
+     * @return The next book ID.
+     */
+
+    static int peekNextId(){
+        return nextId.get();
+    }
+
+    /**
+     * Makes sure new books get IDs of at least the given value, so they don't clash with restored ones.
+     * 
+     * @param id The lowest ID new books may get.
+     */
+
+    static void reserveIdsBelow(int id){
+        nextId.accumulateAndGet(id, Math::max);
+    }
+
+    /**
+     * Hands out a run of consecutive IDs for new books, such as a chunk of books being imported in file order.
+     * 
+     * @param count The number of IDs to hand out.
+     * @return The first ID of the run.
+     */
+
+    static int takeIds(int count){
+        return nextId.getAndAdd(count);
     }
 
     /**
@@ -62,13 +122,28 @@ public class Book implements Borrowable{
     }
 
     /**
-     * Sets the title of the book.
+     * Sets the title of the book. If the book is in a library, it is filed under the new title there.
      * 
      * @param title The new title of the book.
      */
 
     public void setTitle(String title){
+        changeDetails(() -> applyTitle(title));
+    }
+
+    private void applyTitle(String title){
         this.title = title;
+        this.titleKey = SearchKeys.intern(title);
+    }
+
+    /**
+     * Retrieves the search key of the title: the title case folded and without accents.
+     * 
+     * @return The interned title key.
+     */
+
+    String getTitleKey(){
+        return titleKey;
     }
 
     /**
@@ -82,13 +157,13 @@ public class Book implements Borrowable{
     }
 
     /**
-     * Sets the author of the book.
+     * Sets the author of the book. If the book is in a library, it is filed under the new author there.
      * 
      * @param author The new author of the book.
      */
 
     public void setAuthor(Author author){
-        this.author = author;
+        changeDetails(() -> this.author = author);
     }
 
     /**
@@ -102,13 +177,13 @@ public class Book implements Borrowable{
     }
 
     /**
-     * Sets the ISBN of the book.
+     * Sets the ISBN of the book. If the book is in a library, it is filed under the new ISBN there.
      * 
      * @param ISBN The new ISBN of the book.
      */
 
     public void setISBN(String ISBN){
-        this.ISBN = ISBN;
+        changeDetails(() -> this.ISBN = ISBN);
     }
 
     /**
@@ -128,17 +203,47 @@ public class Book implements Borrowable{
      */
 
     public void setPublisher(String publisher){
-        this.publisher = publisher;
+        changeDetails(() -> this.publisher = publisher);
+    }
+
+    /**
+     * Retrieves the patron who currently has the book.
+     * 
+     * @return The borrowing patron, or null if the book is not out on loan.
+     */
+
+    public Patron getBorrower(){
+        return borrower;
     }
 
     /**
-     * Retrieves a map containing the number of copies available for each ISBN.
+     * Sets the patron who has the book. Used when restoring loans, such as from a snapshot.
      * 
-     * @return A map where the keys are ISBNs and the values are the number of copies available.
+     * @param borrower The borrowing patron, or null.
      */
 
-    public static Map<String, Integer> getCopiesByISBN() {
-        return copiesByISBN;
+    void setBorrower(Patron borrower){
+        this.borrower = borrower;
+    }
+
+    /**
+     * Retrieves the library the book belongs to.
+     * 
+     * @return The library holding the book, or null if it has not been added to one.
+     */
+
+    public Library getLibrary(){
+        return library;
+    }
+
+    /**
+     * Sets the library the book belongs to. Called by the library when the book is added or deleted.
+     * 
+     * @param library The library holding the book, or null once it is removed.
+     */
+
+    void setLibrary(Library library){
+        this.library = library;
     }
 
     /**
@@ -157,8 +262,11 @@ public class Book implements Borrowable{
      * @param bookStatus The new status of the book.
      */
 
-    public void setStatus(Status bookStatus){
+    public synchronized void setStatus(Status bookStatus){
+        Status previous = this.bookStatus;
         this.bookStatus = bookStatus;
+        statusChanged(previous);
+        offerToHolds();
     }
 
     /**
@@ -177,11 +285,16 @@ public class Book implements Borrowable{
      * @param dueDate The new due date of the book.
      */
 
-    public void setDueDate(LocalDate dueDate){
+    public synchronized void setDueDate(LocalDate dueDate){
+        LocalDate previous = this.dueDate;
         this.dueDate = dueDate;
+        Library library = this.library;
+        if (library != null) {
+            library.dueDateChanged(this, previous);
+        }
     }
 
-    /* If the book has a status of available, update it to checked out, set it's due date for two weeks time, add the book to the borrowedBook array and decrease the count of available copies of the book by 1 in the copiesByISBN map.*/
+    /* Borrowing and returning lock only this copy, so desks working on different books never wait on each other. */
 
     /**
      * Allows a patron to borrow the book.
@@ -190,16 +303,12 @@ public class Book implements Borrowable{
      */
 
     @Override
-    public void borrowBook(Patron patron) {
+    public synchronized void borrowBook(Patron patron) {
 
-        if (bookStatus == Status.AVAILABLE) {
-            bookStatus = Status.CHECKED_OUT;
-            dueDate = LocalDate.now().plusWeeks(2);
+        if (checkOut(patron)) {
             patron.addBorrowedBook(this);
-            copiesByISBN.put(ISBN, copiesByISBN.get(ISBN) - 1); // Decrement count of available copies
-            System.out.println("Book ID: " + this.bookId + " '" + title + "' borrowed by " + patron.getName() + ".");
         } else {
-            System.out.println("Sorry, Book ID: " + this.bookId + " is currently borrowed. Check back soon!");
+            publish(LibraryEvent.Type.BORROW_REJECTED, patron);
         }
     }
 
@@ -210,18 +319,128 @@ public class Book implements Borrowable{
      */
     
     @Override
-    public void returnBook(Patron patron) {
+    public synchronized void returnBook(Patron patron) {
 
         if ((bookStatus == Status.CHECKED_OUT || bookStatus == Status.OVERDUE) && patron.hasBook(this)) {
-            bookStatus = Status.AVAILABLE;
             patron.removeBorrowedBook(this);
-            copiesByISBN.put(ISBN, copiesByISBN.get(ISBN) + 1); // Increment count of available copies
-            System.out.println("Book ID: " + this.bookId + " '" + title + "' returned by " + patron.getName() + ".");
+            checkIn(patron);
         } else {
-            System.out.println("Unable to Return: " + this.title + " was not found in " + patron.getName() + "'s list of borrowed books.");
+            publish(LibraryEvent.Type.RETURN_REJECTED, patron);
+        }
+    }
+
+    /**
+     * Checks the book out if it is available, or set aside for this patron by a hold, without printing
+     * anything or touching the patron's list of borrowed books, which the caller updates.
+     * 
+     * @param patron The patron borrowing the book.
+     * @return True if the book was available and is now checked out, false otherwise.
+     */
+
+    synchronized boolean checkOut(Patron patron) {
+        Status previous = bookStatus;
+        if (previous == Status.ON_HOLD) {
+            // Only the patron the copy is set aside for can have it
+            Library library = this.library;
+            if (library == null || !library.claimHold(this, patron)) {
+                return false;
+            }
+        } else if (previous != Status.AVAILABLE) {
+            return false;
+        }
+        bookStatus = Status.CHECKED_OUT;
+        dueDate = LocalDate.now().plusWeeks(2);
+        borrower = patron;
+        statusChanged(previous); // Decrement count of available copies
+        Library library = this.library;
+        if (library != null) {
+            library.loanStarted(this, patron);
+        }
+        return true;
+    }
+
+    /**
+     * Checks the book back in if it is out on loan, without printing anything or touching the patron's
+     * list of borrowed books, which the caller has already updated.
+     * 
+     * @param patron The patron returning the book.
+     * @return True if the book was on loan and is now available, false otherwise.
+     */
+
+    synchronized boolean checkIn(Patron patron) {
+        if (bookStatus != Status.CHECKED_OUT && bookStatus != Status.OVERDUE) {
+            return false;
+        }
+        Status previous = bookStatus;
+        bookStatus = Status.AVAILABLE;
+        borrower = null;
+        statusChanged(previous); // Increment count of available copies
+        Library library = this.library;
+        if (library != null) {
+            library.loanEnded(this, patron);
         }
+        offerToHolds();
+        return true;
     }
         
+    /**
+     * Sets the loan state directly, without telling the library. Used by a book store that rebuilds
+     * a book from its stored state.
+     * 
+     * @param bookStatus The status of the book.
+     * @param dueDate The due date, or null.
+     * @param borrower The borrowing patron, or null.
+     */
+
+    void restore(Status bookStatus, LocalDate dueDate, Patron borrower){
+        this.bookStatus = bookStatus;
+        this.dueDate = dueDate;
+        this.borrower = borrower;
+    }
+
+    // Details the library files the book under are changed through the library, so its indexes and store follow.
+
+    private void changeDetails(Runnable change) {
+        Library library = this.library;
+        if (library != null) {
+            library.rekey(this, change);
+        } else {
+            change.run();
+        }
+    }
+
+    // Lets the owning library update its availability counters and due date index after a status change.
+
+    private void statusChanged(Status previous) {
+        Library library = this.library;
+        if (library != null) {
+            library.statusChanged(this, previous);
+        }
+    }
+
+    // A copy back on the shelf goes to the next patron waiting for its ISBN, if there is one.
+
+    private void offerToHolds() {
+        Library library = this.library;
+        if (library != null && bookStatus == Status.AVAILABLE) {
+            library.offerToHolds(this);
+        }
+    }
+
+    // Borrowing and returning report what happened as events on the owning library's event bus.
+
+    private void publish(LibraryEvent.Type type, Patron patron) {
+        Library library = this.library;
+        if (library != null) {
+            library.publish(new LibraryEvent(type, this, patron));
+        }
+    }
+
+    private int availableCopies() {
+        Library library = this.library;
+        return library == null ? 0 : library.availableCopies(ISBN);
+    }
+
      /**
      * Returns a string representation of the book.
      * 
@@ -229,6 +448,6 @@ public class Book implements Borrowable{
      */
 
     public String toString(){
-        return ("BOOK: [Book ID: " + this.bookId + " /" + "Title: " + this.title + " /" + "Author: " +  this.author.getName() + " /" + "ISBN: " +  this.ISBN + " /" + "Publisher: " + this.publisher + " /" + "Status: " +  this.bookStatus + " /" + "Copies Available to Borrow: " + copiesByISBN.getOrDefault(ISBN, 0) + "]");
+        return ("BOOK: [Book ID: " + this.bookId + " /" + "Title: " + this.title + " /" + "Author: " +  this.author.getName() + " /" + "ISBN: " +  this.ISBN + " /" + "Publisher: " + this.publisher + " /" + "Status: " +  this.bookStatus + " /" + "Copies Available to Borrow: " + availableCopies() + "]");
     }
 }
@@ -0,0 +1,144 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * A sorted set of book IDs in a plain int array, used for the buckets of the library's search indexes.
+ *
+ * A set never changes once it can be read: with and without return a new one, so readers walk a bucket
+ * without a lock while the library changes its index. Books are nearly always added with the highest ID yet.
+ * Such an add writes into spare room at the end of the array, which the new set shares, so filling a bucket
+ * costs amortized constant time; the older set never reads past its own size. Any other change copies the array.
+ *
+ * Only the newest set of a bucket may be changed, by one writer at a time. The library does so under its
+ * catalog write lock.
+ */
+
+public final class BookIds {
+
+    public static final BookIds EMPTY = new BookIds(new int[0], 0);
+
+    private final int[] ids;
+    private final int size;
+
+    private BookIds(int[] ids, int size) {
+        this.ids = ids;
+        this.size = size;
+    }
+
+    /**
+     * Gets the number of IDs in the set.
+     *
+     * @return The number of IDs.
+     */
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks whether the set is empty.
+     *
+     * @return True if the set holds no IDs.
+     */
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Gets an ID by its position in the set.
+     *
+     * @param index The position, from 0 to size - 1.
+     * @return The ID at that position.
+     */
+
+    public int get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return ids[index];
+    }
+
+    /**
+     * Checks whether the set holds an ID.
+     *
+     * @param id The ID.
+     * @return True if the set holds it.
+     */
+
+    public boolean contains(int id) {
+        return Arrays.binarySearch(ids, 0, size, id) >= 0;
+    }
+
+    /**
+     * Gets the position of the first ID above afterId, for paging.
+     *
+     * @param afterId The ID to start after.
+     * @return The position of the first higher ID, or size if there is none.
+     */
+
+    public int indexAfter(int afterId) {
+        int i = Arrays.binarySearch(ids, 0, size, afterId);
+        return i < 0 ? -i - 1 : i + 1;
+    }
+
+    /**
+     * Streams the IDs in order.
+     *
+     * @return The IDs.
+     */
+
+    public IntStream stream() {
+        return Arrays.stream(ids, 0, size);
+    }
+
+    /**
+     * Makes the set with an ID added.
+     *
+     * @param id The ID to add.
+     * @return The new set, or this one if it already holds the ID.
+     */
+
+    public BookIds with(int id) {
+        if (size > 0 && ids[size - 1] >= id) {
+            int i = Arrays.binarySearch(ids, 0, size, id);
+            if (i >= 0) {
+                return this;
+            }
+            i = -i - 1;
+            int[] copy = new int[capacityFor(size + 1)];
+            System.arraycopy(ids, 0, copy, 0, i);
+            copy[i] = id;
+            System.arraycopy(ids, i, copy, i + 1, size - i);
+            return new BookIds(copy, size + 1);
+        }
+        int[] array = size < ids.length ? ids : Arrays.copyOf(ids, capacityFor(size + 1));
+        array[size] = id;
+        return new BookIds(array, size + 1);
+    }
+
+    /**
+     * Makes the set with an ID removed.
+     *
+     * @param id The ID to remove.
+     * @return The new set, or this one if it doesn't hold the ID.
+     */
+
+    public BookIds without(int id) {
+        int i = Arrays.binarySearch(ids, 0, size, id);
+        if (i < 0) {
+            return this;
+        }
+        if (size == 1) {
+            return EMPTY;
+        }
+        int[] copy = new int[size - 1];
+        System.arraycopy(ids, 0, copy, 0, i);
+        System.arraycopy(ids, i + 1, copy, i, size - i - 1);
+        return new BookIds(copy, size - 1);
+    }
+
+    private static int capacityFor(int size) {
+        return Math.max(2, size + (size >> 1));
+    }
+}
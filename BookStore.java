@@ -0,0 +1,76 @@
+import java.util.ArrayList;
+
+/**
+ * Holds the books of one library, by ID. The library keeps its search indexes, loans and counters itself
+ * and asks its store for the books; the store decides how they are laid out in memory.
+ *
+ * HeapBookStore keeps every book as a normal object. ColumnarBookStore keeps books column by column and
+ * hands out Book views made on demand, which saves memory on large catalogs. OffHeapBookStore keeps them
+ * as records outside the heap, optionally in a memory-mapped file that survives restarts.
+ *
+ * Stores are changed only by their library, under its catalog write lock. get, page and update may be
+ * called at any time from other threads, including while the store is being changed.
+ */
+
+public interface BookStore {
+
+    /**
+     * Called once by the library that uses the store, before it reads or adds any book.
+     *
+     * @param library The library the store holds books for.
+     */
+
+    void bind(Library library);
+
+    /**
+     * Adds a book. The object passed in is the one get returns for its ID for as long as it is in use.
+     *
+     * @param book The book to add.
+     */
+
+    void add(Book book);
+
+    /**
+     * Removes a book. Called after the library has detached it, so it no longer writes back to the store.
+     *
+     * @param book The book to remove.
+     */
+
+    void remove(Book book);
+
+    /**
+     * Gets a book by its ID.
+     *
+     * @param bookId The ID of the book.
+     * @return The book, or null if the store doesn't hold one with that ID.
+     */
+
+    Book get(int bookId);
+
+    /**
+     * Gets one page of books in ID order.
+     *
+     * @param afterId The ID the page starts after.
+     * @param limit   The most books to return.
+     * @return Up to limit books with IDs above afterId.
+     */
+
+    ArrayList<Book> page(int afterId, int limit);
+
+    /**
+     * Records a change to a book's status, due date, borrower or details, including its author's details.
+     * Called while the book's own lock or the catalog write lock is held.
+     *
+     * @param book The changed book.
+     */
+
+    void update(Book book);
+
+    /**
+     * Gets the number of books in the store.
+     *
+     * @return The number of books.
+     */
+
+    int size();
+}
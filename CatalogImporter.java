@@ -0,0 +1,339 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Loads authors, patrons and books into a library from large CSV files.
+ *
+ * Files are read line by line in chunks. Each chunk is parsed on a fork-join pool while the next one
+ * is being read, and parsed chunks are added to the library in file order, one batch per chunk, so the
+ * catalog lock is taken once per chunk rather than once per row. Only a few chunks are in flight at a
+ * time, so memory use stays flat however large the file is. Imported books are left out of the library's
+ * search indexes until the whole file is in, and are then filed chunk by chunk; books already in the
+ * library are not touched.
+ *
+ * Every file starts with a header line, which is skipped. Fields are separated by commas and may be
+ * wrapped in double quotes, with "" standing for a quote inside a field. Fields can't span lines.
+ * Rows with the wrong number of fields are skipped and counted in getRejectedRows.
+ *
+ * Authors are deduplicated by name, ignoring case and accents, against the authors already in the library and
+ * across files, and each imported book is linked to its author.
+ */
+
+public class CatalogImporter {
+
+    private static final int CHUNK_SIZE = 10_000;
+
+    private final Library library;
+    private final ForkJoinPool pool;
+    private final Map<String, Author> authorsByName;
+    private final AtomicLong rejectedRows = new AtomicLong();
+
+    // The ID ranges of the chunks of books added but not yet filed in the library's search indexes.
+
+    private final List<int[]> unindexed = new ArrayList<>();
+
+    /**
+     * Constructs a CatalogImporter that parses on the common fork-join pool.
+     *
+     * @param library The library to load into.
+     */
+
+    public CatalogImporter(Library library) {
+        this(library, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructs a CatalogImporter.
+     *
+     * @param library The library to load into.
+     * @param pool    The pool that parses chunks.
+     */
+
+    public CatalogImporter(Library library, ForkJoinPool pool) {
+        this.library = library;
+        this.pool = pool;
+        this.authorsByName = new ConcurrentHashMap<>();
+        for (Author author : library.getAllAuthors()) {
+            authorsByName.putIfAbsent(authorKey(author.getName()), author);
+        }
+    }
+
+    /**
+     * Imports authors from a CSV file with the columns name, dateOfBirth.
+     * Authors whose name is already known are not added again.
+     *
+     * @param file The CSV file.
+     * @return The number of authors added.
+     * @throws IOException If the file can't be read.
+     */
+
+    public long importAuthors(Path file) throws IOException {
+        return importFile(file, lines -> {
+            List<Author> authors = new ArrayList<>();
+            for (String line : lines) {
+                List<String> fields = fields(line, 2);
+                if (fields != null) {
+                    newAuthor(fields.get(0), fields.get(1), authors);
+                }
+            }
+            return new Batch(authors, Collections.emptyList(), Collections.emptyList());
+        });
+    }
+
+    /**
+     * Imports patrons from a CSV file with the columns name, address, city, province, postalCode, phone.
+     *
+     * @param file The CSV file.
+     * @return The number of patrons added.
+     * @throws IOException If the file can't be read.
+     */
+
+    public long importPatrons(Path file) throws IOException {
+        return importFile(file, lines -> {
+            List<Patron> patrons = new ArrayList<>(lines.size());
+            for (String line : lines) {
+                List<String> fields = fields(line, 6);
+                if (fields != null) {
+                    patrons.add(new Patron(fields.get(0), fields.get(1), fields.get(2), fields.get(3), fields.get(4), fields.get(5)));
+                }
+            }
+            return new Batch(Collections.emptyList(), patrons, Collections.emptyList());
+        });
+    }
+
+    /**
+     * Imports books from a CSV file with the columns title, authorName, ISBN, publisher.
+     * Each row is one copy. Authors that aren't known yet are created, with no date of birth, and added too.
+     *
+     * @param file The CSV file.
+     * @return The number of books added.
+     * @throws IOException If the file can't be read.
+     */
+
+    public long importBooks(Path file) throws IOException {
+        try {
+            return importFile(file, lines -> {
+                List<BookRow> books = new ArrayList<>(lines.size());
+                for (String line : lines) {
+                    List<String> fields = fields(line, 4);
+                    if (fields != null) {
+                        // New authors are added with the first batch that references them, see insert
+                        Author author = newAuthor(fields.get(1), null, null);
+                        books.add(new BookRow(fields.get(0), author, fields.get(2), fields.get(3)));
+                    }
+                }
+                return new Batch(Collections.emptyList(), Collections.emptyList(), books);
+            });
+        } finally {
+            // Only the books this import added are filed, chunk by chunk, including those added before a failure
+            synchronized (unindexed) {
+                for (int[] range : unindexed) {
+                    library.indexBooks(range[0], range[1]);
+                }
+                unindexed.clear();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of rows skipped so far because they had the wrong number of fields.
+     *
+     * @return The number of rejected rows.
+     */
+
+    public long getRejectedRows() {
+        return rejectedRows.get();
+    }
+
+    // Reads chunks, hands them to the pool, and adds the parsed batches in order as they complete.
+
+    private long importFile(Path file, Function<List<String>, Batch> parser) throws IOException {
+        int maxInFlight = Math.max(2, pool.getParallelism() * 2);
+        ArrayDeque<Future<Batch>> inFlight = new ArrayDeque<>();
+        long added = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            reader.readLine(); // Header
+            List<String> chunk = new ArrayList<>(CHUNK_SIZE);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                chunk.add(line);
+                if (chunk.size() == CHUNK_SIZE) {
+                    List<String> lines = chunk;
+                    inFlight.add(pool.submit(() -> parser.apply(lines)));
+                    chunk = new ArrayList<>(CHUNK_SIZE);
+                    if (inFlight.size() >= maxInFlight) {
+                        added += insert(await(inFlight.poll()));
+                    }
+                }
+            }
+            if (!chunk.isEmpty()) {
+                List<String> lines = chunk;
+                inFlight.add(pool.submit(() -> parser.apply(lines)));
+            }
+            while (!inFlight.isEmpty()) {
+                added += insert(await(inFlight.poll()));
+            }
+        } finally {
+            for (Future<Batch> pending : inFlight) {
+                pending.cancel(true);
+            }
+        }
+        return added;
+    }
+
+    private long insert(Batch batch) {
+        if (!batch.authors.isEmpty()) {
+            library.addAuthors(batch.authors);
+        }
+        if (!batch.patrons.isEmpty()) {
+            library.addPatrons(batch.patrons);
+        }
+        if (!batch.books.isEmpty()) {
+            // Chunks may parse out of order, so an author is added with the first batch inserted that
+            // references it rather than with the chunk that happened to create it
+            Set<Author> newAuthors = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (BookRow row : batch.books) {
+                if (library.findAuthorById(row.author.getAuthorID()) != row.author) {
+                    newAuthors.add(row.author);
+                }
+            }
+            if (!newAuthors.isEmpty()) {
+                library.addAuthors(newAuthors);
+            }
+            // IDs are handed out here rather than while parsing, so they follow file order across chunks
+            // and stores that keep books in ID order only ever append
+            int bookId = Book.takeIds(batch.books.size());
+            List<Book> books = new ArrayList<>(batch.books.size());
+            for (BookRow row : batch.books) {
+                books.add(new Book(bookId++, row.title, row.titleKey, row.author, row.ISBN, row.publisher));
+            }
+            library.addBooksUnindexed(books);
+            synchronized (unindexed) {
+                unindexed.add(new int[] {bookId - books.size(), bookId});
+            }
+        }
+        return batch.books.isEmpty() ? batch.authors.size() + batch.patrons.size() : batch.books.size();
+    }
+
+    private static Batch await(Future<Batch> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new IOException("Import failed", e.getCause());
+        }
+    }
+
+    // Returns the author with this name, creating it and adding it to created, if given, if it is new.
+
+    private Author newAuthor(String name, String dateOfBirth, List<Author> created) {
+        return authorsByName.computeIfAbsent(authorKey(name), key -> {
+            Author author = new Author(name, dateOfBirth);
+            if (created != null) {
+                created.add(author);
+            }
+            return author;
+        });
+    }
+
+    private static String authorKey(String name) {
+        return name == null ? "" : SearchKeys.normalize(name.trim());
+    }
+
+    // Splits one CSV line, or returns null and counts the row as rejected if it doesn't have the expected number of fields.
+
+    private List<String> fields(String line, int expected) {
+        List<String> fields = new ArrayList<>(expected);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString().trim());
+        if (quoted || fields.size() != expected) {
+            rejectedRows.incrementAndGet();
+            return null;
+        }
+        return fields;
+    }
+
+    /**
+     * The records parsed from one chunk of a file.
+     */
+
+    private static class Batch {
+
+        private final List<Author> authors;
+        private final List<Patron> patrons;
+        private final List<BookRow> books;
+
+        Batch(List<Author> authors, List<Patron> patrons, List<BookRow> books) {
+            this.authors = authors;
+            this.patrons = patrons;
+            this.books = books;
+        }
+    }
+
+    /**
+     * One parsed book row, waiting for its ID. The title's search key is worked out while parsing.
+     */
+
+    private static class BookRow {
+
+        private final String title;
+        private final String titleKey;
+        private final Author author;
+        private final String ISBN;
+        private final String publisher;
+
+        BookRow(String title, Author author, String ISBN, String publisher) {
+            this.title = title;
+            this.titleKey = SearchKeys.intern(title);
+            this.author = author;
+            this.ISBN = ISBN;
+            this.publisher = publisher;
+        }
+    }
+}
@@ -0,0 +1,327 @@
+import java.util.ArrayList;
+
+/**
+ * One version of a library's catalog, which never changes once made.
+ *
+ * A reader gets the current version with a single read of a volatile field and can then make as many
+ * lookups as it likes without locks, retries or waiting for writers, and every lookup sees the same
+ * catalog. Writers never change a published version. Each write to the catalog makes the next version from
+ * the last one, copying only the few index nodes the write touched, and publishes it when the write is done.
+ *
+ * A view fixes which books are in the catalog and which title, author and ISBN each is filed under. The
+ * books themselves are the library's live objects, so their status, due date and borrower are always
+ * current, and a book renamed since the view was made still turns up under its old title in that view.
+ */
+
+public final class CatalogView {
+
+    static final CatalogView EMPTY = new CatalogView(0, PersistentIntMap.empty(), PersistentIntMap.empty(),
+            PersistentIntMap.empty(), PersistentIntMap.empty());
+
+    private final long version;
+    private final PersistentIntMap<Book> books;
+
+    // Search indexes keyed by the hash of the title key, author name key or ISBN. Each bucket holds the
+    // books of one key in ID order, chained with any other keys of the same hash.
+
+    private final PersistentIntMap<Bucket> byTitle;
+    private final PersistentIntMap<Bucket> byAuthor;
+    private final PersistentIntMap<Bucket> byISBN;
+
+    private CatalogView(long version, PersistentIntMap<Book> books, PersistentIntMap<Bucket> byTitle,
+            PersistentIntMap<Bucket> byAuthor, PersistentIntMap<Bucket> byISBN) {
+        this.version = version;
+        this.books = books;
+        this.byTitle = byTitle;
+        this.byAuthor = byAuthor;
+        this.byISBN = byISBN;
+    }
+
+    /**
+     * Gets the version number of the view. Each write to the catalog publishes the next number.
+     *
+     * @return The version number.
+     */
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the number of books in the view.
+     *
+     * @return The number of books.
+     */
+
+    public int size() {
+        return books.size();
+    }
+
+    /**
+     * Finds a book in the view by its ID.
+     *
+     * @param bookId The ID of the book.
+     * @return The book with the specified ID, or null if not found.
+     */
+
+    public Book findBookById(int bookId) {
+        return books.get(bookId);
+    }
+
+    /**
+     * Retrieves one page of the books in the view, in ID order.
+     * Pass 0 for the first page, then the ID of the last book of each page to get the next one.
+     *
+     * @param afterId The ID the page starts after.
+     * @param limit The most books to return.
+     * @return Up to limit books with IDs above afterId.
+     */
+
+    public ArrayList<Book> getBooks(int afterId, int limit) {
+        return page(books, afterId, limit);
+    }
+
+    /**
+     * Searches for books in the view by title. Case and accents are ignored.
+     *
+     * @param title The title of the book to search for.
+     * @return A list of books with matching titles, in ID order.
+     */
+
+    public ArrayList<Book> searchByTitle(String title) {
+        return all(find(byTitle, SearchKeys.normalize(title)));
+    }
+
+    /**
+     * Searches for books in the view by author. Case and accents are ignored.
+     *
+     * @param authorName The name of the author to search for.
+     * @return A list of books written by the specified author, in ID order.
+     */
+
+    public ArrayList<Book> searchByAuthor(String authorName) {
+        return all(find(byAuthor, SearchKeys.normalize(authorName)));
+    }
+
+    /**
+     * Searches for books in the view by ISBN.
+     *
+     * @param ISBN The ISBN number of the book.
+     * @return The copies with the ISBN, in ID order.
+     */
+
+    public ArrayList<Book> searchByISBN(String ISBN) {
+        return all(find(byISBN, ISBN));
+    }
+
+    /**
+     * Searches for books by title one page at a time, in ID order.
+     *
+     * @param title The title of the book to search for.
+     * @param afterId The ID the page starts after.
+     * @param limit The most books to return.
+     * @return Up to limit books with matching titles and IDs above afterId.
+     */
+
+    public ArrayList<Book> searchByTitle(String title, int afterId, int limit) {
+        return page(find(byTitle, SearchKeys.normalize(title)), afterId, limit);
+    }
+
+    /**
+     * Searches for books by author one page at a time, in ID order.
+     *
+     * @param authorName The name of the author to search for.
+     * @param afterId The ID the page starts after.
+     * @param limit The most books to return.
+     * @return Up to limit books by the author with IDs above afterId.
+     */
+
+    public ArrayList<Book> searchByAuthor(String authorName, int afterId, int limit) {
+        return page(find(byAuthor, SearchKeys.normalize(authorName)), afterId, limit);
+    }
+
+    /**
+     * Searches for books by ISBN one page at a time, in ID order.
+     *
+     * @param ISBN The ISBN number of the book.
+     * @param afterId The ID the page starts after.
+     * @param limit The most books to return.
+     * @return Up to limit copies with the ISBN and IDs above afterId.
+     */
+
+    public ArrayList<Book> searchByISBN(String ISBN, int afterId, int limit) {
+        return page(find(byISBN, ISBN), afterId, limit);
+    }
+
+    /**
+     * Starts making the next version from this one.
+     *
+     * @return An editor whose changes are not visible until it publishes them.
+     */
+
+    Editor edit() {
+        return new Editor(this);
+    }
+
+    private static PersistentIntMap<Book> find(PersistentIntMap<Bucket> index, String key) {
+        if (key == null) {
+            return PersistentIntMap.empty();
+        }
+        for (Bucket bucket = index.get(key.hashCode()); bucket != null; bucket = bucket.next) {
+            if (bucket.key.equals(key)) {
+                return bucket.books;
+            }
+        }
+        return PersistentIntMap.empty();
+    }
+
+    private static ArrayList<Book> all(PersistentIntMap<Book> books) {
+        ArrayList<Book> all = new ArrayList<>(books.size());
+        books.forEach(all::add);
+        return all;
+    }
+
+    private static ArrayList<Book> page(PersistentIntMap<Book> books, int afterId, int limit) {
+        ArrayList<Book> page = new ArrayList<>(Math.max(0, Math.min(limit, Math.min(books.size(), 1024))));
+        if (limit > 0) {
+            books.forEachAfter(afterId, book -> {
+                page.add(book);
+                return page.size() < limit;
+            });
+        }
+        return page;
+    }
+
+    /**
+     * Makes the next version of a view. All changes share one edit token, so index nodes copied by one change
+     * are updated in place by the next, and a batch such as deleting an author's books costs one copy of each
+     * path it touches. An editor is used by one writer at a time and is finished by publish.
+     */
+
+    static final class Editor {
+
+        private final long version;
+        private Object edit = new Object();
+        private PersistentIntMap<Book> books;
+        private PersistentIntMap<Bucket> byTitle;
+        private PersistentIntMap<Bucket> byAuthor;
+        private PersistentIntMap<Bucket> byISBN;
+
+        private Editor(CatalogView base) {
+            this.version = base.version + 1;
+            this.books = base.books;
+            this.byTitle = base.byTitle;
+            this.byAuthor = base.byAuthor;
+            this.byISBN = base.byISBN;
+        }
+
+        /**
+         * Adds a book under its current title, author and ISBN.
+         *
+         * @param book The book.
+         */
+
+        void add(Book book) {
+            books = books.with(book.getBookId(), book, edit);
+            byTitle = file(byTitle, book.getTitleKey(), book);
+            byAuthor = file(byAuthor, authorKey(book), book);
+            byISBN = file(byISBN, book.getISBN(), book);
+        }
+
+        /**
+         * Removes a book from under its current title, author and ISBN.
+         *
+         * @param book The book.
+         */
+
+        void remove(Book book) {
+            books = books.without(book.getBookId(), edit);
+            byTitle = unfile(byTitle, book.getTitleKey(), book);
+            byAuthor = unfile(byAuthor, authorKey(book), book);
+            byISBN = unfile(byISBN, book.getISBN(), book);
+        }
+
+        /**
+         * Removes every book, so the version can be filled again from scratch.
+         */
+
+        void clear() {
+            books = PersistentIntMap.empty();
+            byTitle = PersistentIntMap.empty();
+            byAuthor = PersistentIntMap.empty();
+            byISBN = PersistentIntMap.empty();
+        }
+
+        /**
+         * Finishes the version. The editor can't be used afterwards.
+         *
+         * @return The new version.
+         */
+
+        CatalogView publish() {
+            edit = null;
+            return new CatalogView(version, books, byTitle, byAuthor, byISBN);
+        }
+
+        private static String authorKey(Book book) {
+            return book.getAuthor() == null ? null : book.getAuthor().getNameKey();
+        }
+
+        private PersistentIntMap<Bucket> file(PersistentIntMap<Bucket> index, String key, Book book) {
+            if (key == null) {
+                return index;
+            }
+            Bucket chain = index.get(key.hashCode());
+            PersistentIntMap<Book> bucket = PersistentIntMap.<Book>empty().with(book.getBookId(), book, edit);
+            for (Bucket b = chain; b != null; b = b.next) {
+                if (b.key.equals(key)) {
+                    bucket = b.books.with(book.getBookId(), book, edit);
+                    break;
+                }
+            }
+            return index.with(key.hashCode(), Bucket.replace(chain, key, bucket), edit);
+        }
+
+        private PersistentIntMap<Bucket> unfile(PersistentIntMap<Bucket> index, String key, Book book) {
+            if (key == null) {
+                return index;
+            }
+            Bucket chain = index.get(key.hashCode());
+            for (Bucket b = chain; b != null; b = b.next) {
+                if (b.key.equals(key)) {
+                    Bucket changed = Bucket.replace(chain, key, b.books.without(book.getBookId(), edit));
+                    return changed == null ? index.without(key.hashCode(), edit) : index.with(key.hashCode(), changed, edit);
+                }
+            }
+            return index;
+        }
+    }
+
+    // The books filed under one key, and the next key with the same hash. Chains are almost always one long.
+
+    private static final class Bucket {
+
+        final String key;
+        final PersistentIntMap<Book> books;
+        final Bucket next;
+
+        Bucket(String key, PersistentIntMap<Book> books, Bucket next) {
+            this.key = key;
+            this.books = books;
+            this.next = next;
+        }
+
+        // Copies a chain with the books of one key replaced, added if the key is new and dropped if empty.
+
+        static Bucket replace(Bucket chain, String key, PersistentIntMap<Book> books) {
+            if (chain == null) {
+                return books.isEmpty() ? null : new Bucket(key, books, null);
+            }
+            if (chain.key.equals(key)) {
+                return books.isEmpty() ? chain.next : new Bucket(key, books, chain.next);
+            }
+            Bucket rest = replace(chain.next, key, books);
+            return rest == chain.next ? chain : new Bucket(chain.key, chain.books, rest);
+        }
+    }
+}
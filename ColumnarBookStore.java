@@ -0,0 +1,331 @@
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Keeps books column by column instead of one object per book, for catalogs too large to keep as objects.
+ *
+ * Each column is a primitive or reference array split into segments of 4096 rows: the book ID, title, title
+ * search key and ISBN, the author and publisher as codes into dictionaries shared by every row, the status
+ * as a byte, the due date as an epoch day and the borrower. Title keys are interned, so that column costs
+ * only a reference. A Book is made from its row when it is asked for and written back whenever its status,
+ * due date, borrower or details change. The store keeps only a weak reference to it, so a book nobody holds
+ * is collected and made again next time. Books out on loan stay in memory through their borrower and the
+ * library's due date index.
+ *
+ * Rows of deleted books are reused. Author and publisher codes are not, so the dictionaries only grow.
+ */
+
+public class ColumnarBookStore implements BookStore {
+
+    private static final int SEGMENT_BITS = 12;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+    private static final int MIN_CAPACITY = 16;
+    private static final int NONE = 0; // Dictionary code for a missing author or publisher
+    private static final int NO_DATE = Integer.MIN_VALUE;
+    private static final Status[] STATUSES = Status.values();
+
+    private Library library;
+
+    // Rows, one segment of every column at a time. Rows are never moved, so a book keeps its row until deleted.
+
+    private volatile Segment[] segments = new Segment[0];
+
+    // Row of each book ID, and the IDs in order for paging.
+
+    private final RowIndex rows = new RowIndex();
+
+    // Guards the row index and the segment directory. Rows themselves are guarded by their segment.
+
+    private final StampedLock lock = new StampedLock();
+
+    // Views of rows that were collected, so their references can be dropped from the rows too.
+
+    private final ReferenceQueue<Book> collected = new ReferenceQueue<>();
+
+    // Dictionaries of authors and publishers. Codes start at 1 and are handed out once per distinct value.
+
+    private final ConcurrentHashMap<Author, Integer> authorCodes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> publisherCodes = new ConcurrentHashMap<>();
+    private volatile Author[] authors = new Author[MIN_CAPACITY];
+    private volatile String[] publishers = new String[MIN_CAPACITY];
+    private int authorCount = 1;
+    private int publisherCount = 1;
+
+    /**
+     * Remembers the library, so books made from rows belong to it.
+     *
+     * @param library The library the store holds books for.
+     */
+
+    @Override
+    public void bind(Library library) {
+        this.library = library;
+    }
+
+    /**
+     * Writes a book to a free row and keeps the book itself as the row's view.
+     *
+     * @param book The book to add.
+     */
+
+    @Override
+    public void add(Book book) {
+        int id = book.getBookId();
+        int authorCode = authorCode(book.getAuthor());
+        int publisherCode = publisherCode(book.getPublisher());
+        long stamp = lock.writeLock();
+        try {
+            dropCollectedViews();
+            int row = rows.find(id);
+            if (row < 0) {
+                row = rows.insert(id);
+                if ((row >>> SEGMENT_BITS) == segments.length) {
+                    Segment[] grown = Arrays.copyOf(segments, segments.length + 1);
+                    grown[segments.length] = new Segment();
+                    segments = grown;
+                }
+            }
+            Segment segment = segments[row >>> SEGMENT_BITS];
+            synchronized (segment) {
+                segment.write(row & SEGMENT_MASK, book, authorCode, publisherCode);
+                segment.views[row & SEGMENT_MASK] = new View(book, row, collected);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Clears a book's row and frees it for the next book added.
+     *
+     * @param book The book to remove.
+     */
+
+    @Override
+    public void remove(Book book) {
+        int id = book.getBookId();
+        long stamp = lock.writeLock();
+        try {
+            dropCollectedViews();
+            int row = rows.remove(id);
+            if (row < 0) {
+                return;
+            }
+            Segment segment = segments[row >>> SEGMENT_BITS];
+            synchronized (segment) {
+                segment.clear(row & SEGMENT_MASK);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Gets the book with an ID, making it from its row if it isn't in memory.
+     *
+     * @param bookId The ID of the book.
+     * @return The book, or null if the store doesn't hold one with that ID. A book deleted and added again
+     *         while this runs may also read as null; the library's own lock validation retries that case.
+     */
+
+    @Override
+    public Book get(int bookId) {
+        int row = rows.find(bookId, lock);
+        return row < 0 ? null : view(bookId, row);
+    }
+
+    /**
+     * Gets one page of books in ID order, making each from its row if needed.
+     *
+     * @param afterId The ID the page starts after.
+     * @param limit   The most books to return.
+     * @return Up to limit books with IDs above afterId.
+     */
+
+    @Override
+    public ArrayList<Book> page(int afterId, int limit) {
+        ArrayList<Book> page = new ArrayList<>(Math.max(0, Math.min(limit, 1024)));
+        if (limit <= 0) {
+            return page;
+        }
+        long stamp = lock.readLock();
+        try {
+            rows.forEachAfter(afterId, id -> {
+                Book book = view(id, rows.find(id));
+                if (book != null) {
+                    page.add(book);
+                }
+                return page.size() < limit;
+            });
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return page;
+    }
+
+    /**
+     * Writes a book's current state back to its row.
+     *
+     * @param book The changed book.
+     */
+
+    @Override
+    public void update(Book book) {
+        int id = book.getBookId();
+        int row = rows.find(id, lock);
+        if (row < 0) {
+            return;
+        }
+        int authorCode = authorCode(book.getAuthor());
+        int publisherCode = publisherCode(book.getPublisher());
+        Segment segment = segments[row >>> SEGMENT_BITS];
+        synchronized (segment) {
+            if (segment.ids[row & SEGMENT_MASK] == id) {
+                segment.write(row & SEGMENT_MASK, book, authorCode, publisherCode);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of books in the store.
+     *
+     * @return The number of books.
+     */
+
+    @Override
+    public int size() {
+        return rows.size();
+    }
+
+    // Returns the row's book if it is still in memory, or makes a new one. The segment lock makes sure
+    // only one book is made per row, and that the row still holds the ID found for it.
+
+    private Book view(int id, int row) {
+        Segment segment = segments[row >>> SEGMENT_BITS];
+        int i = row & SEGMENT_MASK;
+        synchronized (segment) {
+            if (segment.ids[i] != id) {
+                return null;
+            }
+            View reference = segment.views[i];
+            Book book = reference == null ? null : reference.get();
+            if (book == null) {
+                book = new Book(id, segment.titles[i], segment.titleKeys[i], authors[segment.authors[i]], segment.isbns[i], publishers[segment.publishers[i]]);
+                book.restore(STATUSES[segment.statuses[i]], segment.dueDays[i] == NO_DATE ? null : LocalDate.ofEpochDay(segment.dueDays[i]), segment.borrowers[i]);
+                book.setLibrary(library);
+                segment.views[i] = new View(book, row, collected);
+            }
+            return book;
+        }
+    }
+
+    // Clears the references of collected views out of their rows, so rows don't keep empty references around.
+    // Called by add and remove, under the write lock.
+
+    private void dropCollectedViews() {
+        for (Reference<? extends Book> reference; (reference = collected.poll()) != null; ) {
+            View view = (View) reference;
+            Segment segment = segments[view.row >>> SEGMENT_BITS];
+            synchronized (segment) {
+                if (segment.views[view.row & SEGMENT_MASK] == view) {
+                    segment.views[view.row & SEGMENT_MASK] = null;
+                }
+            }
+        }
+    }
+
+    // Dictionary codes. Looking up a known value takes no lock; a new value is appended under the map's lock.
+
+    private int authorCode(Author author) {
+        if (author == null) {
+            return NONE;
+        }
+        Integer code = authorCodes.get(author);
+        return code != null ? code : authorCodes.computeIfAbsent(author, this::appendAuthor);
+    }
+
+    private int publisherCode(String publisher) {
+        if (publisher == null) {
+            return NONE;
+        }
+        Integer code = publisherCodes.get(publisher);
+        return code != null ? code : publisherCodes.computeIfAbsent(publisher, this::appendPublisher);
+    }
+
+    private synchronized int appendAuthor(Author author) {
+        Author[] authors = this.authors;
+        if (authorCount == authors.length) {
+            authors = Arrays.copyOf(authors, authorCount * 2);
+        }
+        authors[authorCount] = author;
+        this.authors = authors;
+        return authorCount++;
+    }
+
+    private synchronized int appendPublisher(String publisher) {
+        String[] publishers = this.publishers;
+        if (publisherCount == publishers.length) {
+            publishers = Arrays.copyOf(publishers, publisherCount * 2);
+        }
+        publishers[publisherCount] = publisher;
+        this.publishers = publishers;
+        return publisherCount++;
+    }
+
+    // One block of rows, every column side by side.
+
+    private static final class Segment {
+
+        private final int[] ids = new int[SEGMENT_SIZE];
+        private final String[] titles = new String[SEGMENT_SIZE];
+        private final String[] titleKeys = new String[SEGMENT_SIZE]; // Interned, so shared with the title index
+        private final String[] isbns = new String[SEGMENT_SIZE];
+        private final int[] authors = new int[SEGMENT_SIZE];
+        private final int[] publishers = new int[SEGMENT_SIZE];
+        private final byte[] statuses = new byte[SEGMENT_SIZE];
+        private final int[] dueDays = new int[SEGMENT_SIZE];
+        private final Patron[] borrowers = new Patron[SEGMENT_SIZE];
+        private final View[] views = new View[SEGMENT_SIZE];
+
+        private void write(int i, Book book, int authorCode, int publisherCode) {
+            LocalDate dueDate = book.getDueDate();
+            ids[i] = book.getBookId();
+            titles[i] = book.getTitle();
+            titleKeys[i] = book.getTitleKey();
+            isbns[i] = book.getISBN();
+            authors[i] = authorCode;
+            publishers[i] = publisherCode;
+            statuses[i] = (byte) book.getBookStatus().ordinal();
+            dueDays[i] = dueDate == null ? NO_DATE : (int) dueDate.toEpochDay();
+            borrowers[i] = book.getBorrower();
+        }
+
+        private void clear(int i) {
+            ids[i] = 0;
+            titles[i] = null;
+            titleKeys[i] = null;
+            isbns[i] = null;
+            borrowers[i] = null;
+            views[i] = null;
+        }
+    }
+
+    // A weak reference to a row's book that remembers the row, so it can be cleared once the book is collected.
+
+    private static final class View extends WeakReference<Book> {
+
+        private final int row;
+
+        private View(Book book, int row, ReferenceQueue<Book> queue) {
+            super(book, queue);
+            this.row = row;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Prints library events to the console, in the same words the library used to print them itself.
+ */
+
+public class ConsoleListener implements LibraryListener {
+
+    /**
+     * Prints one event.
+     *
+     * @param event The event to print.
+     */
+
+    @Override
+    public void onEvent(LibraryEvent event) {
+        Book book = event.getBook();
+        Patron patron = event.getPatron();
+        switch (event.getType()) {
+            case BOOK_BORROWED:
+                System.out.println("Book ID: " + book.getBookId() + " '" + book.getTitle() + "' borrowed by " + patron.getName() + ".");
+                break;
+            case BOOK_RETURNED:
+                System.out.println("Book ID: " + book.getBookId() + " '" + book.getTitle() + "' returned by " + patron.getName() + ".");
+                break;
+            case BORROW_REJECTED:
+                System.out.println("Sorry, Book ID: " + book.getBookId() + " is currently borrowed. Check back soon!");
+                break;
+            case RETURN_REJECTED:
+                System.out.println("Unable to Return: " + book.getTitle() + " was not found in " + patron.getName() + "'s list of borrowed books.");
+                break;
+            case BOOK_OVERDUE:
+                System.out.println("BOOK [ID: " + book.getBookId() + " Title: '" + book.getTitle() + "'] is overdue.");
+                break;
+            case HOLD_READY:
+                System.out.println("Book ID: " + book.getBookId() + " '" + book.getTitle() + "' is on hold for " + patron.getName() + ".");
+                break;
+            case HOLD_EXPIRED:
+                System.out.println("Hold on Book ID: " + book.getBookId() + " '" + book.getTitle() + "' for " + patron.getName() + " has expired.");
+                break;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Keeps the books that are out on loan ordered by their due date, so the overdue ones
+ * can be found without looking at the rest of the catalog.
+ */
+
+public class DueDateIndex {
+
+    // Keyed by the due date's epoch day in the high 32 bits and the book id in the low 32 bits,
+    // which orders loans by due date and keeps copies due on the same day apart.
+
+    private final ConcurrentNavigableMap<Long, Book> loansByDueDate;
+
+    /**
+     * Constructs an empty DueDateIndex.
+     */
+
+    public DueDateIndex() {
+        this.loansByDueDate = new ConcurrentSkipListMap<>();
+    }
+
+    /**
+     * Adds a book that is out on loan.
+     *
+     * @param book    The book on loan.
+     * @param dueDate The date the book is due back.
+     */
+
+    public void add(Book book, LocalDate dueDate) {
+        if (dueDate != null) {
+            loansByDueDate.put(key(dueDate, book.getBookId()), book);
+        }
+    }
+
+    /**
+     * Removes a book from the index.
+     *
+     * @param book    The book to remove.
+     * @param dueDate The due date the book was added with.
+     */
+
+    public void remove(Book book, LocalDate dueDate) {
+        if (dueDate != null) {
+            loansByDueDate.remove(key(dueDate, book.getBookId()));
+        }
+    }
+
+    /**
+     * Gets the books that were due back before the given date.
+     * Only the entries that are past due are visited; entries left behind by a book whose
+     * loan or due date changed since it was indexed are dropped along the way.
+     *
+     * @param today The current date.
+     * @return The books on loan whose due date is before today, earliest first.
+     */
+
+    public List<Book> dueBefore(LocalDate today) {
+        List<Book> overdueBooks = new ArrayList<>();
+        Iterator<Map.Entry<Long, Book>> iterator = loansByDueDate.headMap(key(today, 0)).entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Book> entry = iterator.next();
+            Book book = entry.getValue();
+            LocalDate dueDate = book.getDueDate();
+            if (!book.getBookStatus().isOnLoan() || dueDate == null || key(dueDate, book.getBookId()) != entry.getKey()) {
+                iterator.remove();
+            } else {
+                overdueBooks.add(book);
+            }
+        }
+        return overdueBooks;
+    }
+
+    private static long key(LocalDate dueDate, int bookId) {
+        return (dueDate.toEpochDay() << 32) | (bookId & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,205 @@
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Delivers library events to listeners on a background thread.
+ *
+ * Publishers claim a slot in a fixed-size ring buffer with a single compare-and-set and return at once;
+ * one dispatcher thread, a virtual thread where the JDK has them, takes events out in order and calls the listeners. Publishing never blocks:
+ * if the listeners fall so far behind that the ring is full, the event is dropped and counted.
+ * While nobody is subscribed, publishing costs next to nothing and no thread is started.
+ * A listener that throws is reported to the dispatcher thread's uncaught exception handler and keeps
+ * receiving events.
+ */
+
+public class EventBus implements AutoCloseable {
+
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final long AWAIT_POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final AtomicReferenceArray<LibraryEvent> ring;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final List<LibraryListener> listeners = new CopyOnWriteArrayList<>();
+
+    // Written only by the dispatcher thread.
+    private volatile long consumed;
+    private volatile long delivered;
+
+    private volatile Thread dispatcher;
+    private volatile boolean sleeping;
+    private volatile boolean closed;
+
+    /**
+     * Constructs an EventBus with room for 65,536 undelivered events.
+     */
+
+    public EventBus() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs an EventBus.
+     *
+     * @param capacity The number of undelivered events it can hold, rounded up to a power of two.
+     */
+
+    public EventBus(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.ring = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Adds a listener, starting the dispatcher thread if this is the first one.
+     *
+     * @param listener The listener to add.
+     */
+
+    public void subscribe(LibraryListener listener) {
+        listeners.add(listener);
+        if (dispatcher == null) {
+            synchronized (this) {
+                if (dispatcher == null && !closed) {
+                    Thread thread = VirtualThreads.newThreadFactory("library-events").newThread(this::dispatch);
+                    dispatcher = thread;
+                    thread.start();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes a listener.
+     *
+     * @param listener The listener to remove.
+     */
+
+    public void unsubscribe(LibraryListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Queues an event for the listeners without waiting for them.
+     *
+     * @param event The event to publish.
+     * @return False if the event was dropped because the ring was full or the bus is closed, true otherwise.
+     */
+
+    public boolean publish(LibraryEvent event) {
+        if (listeners.isEmpty()) {
+            return true;
+        }
+        if (closed) {
+            dropped.increment();
+            return false;
+        }
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed > mask) {
+                dropped.increment();
+                return false;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+        ring.set((int) sequence & mask, event);
+        if (sleeping) {
+            LockSupport.unpark(dispatcher);
+        }
+        return true;
+    }
+
+    /**
+     * Gets the number of events dropped because the listeners could not keep up.
+     *
+     * @return The number of dropped events.
+     */
+
+    public long getDroppedEvents() {
+        return dropped.sum();
+    }
+
+    /**
+     * Waits until every event published so far has been delivered to the listeners.
+     *
+     * @param timeout How long to wait at most.
+     * @param unit    The unit of the timeout.
+     * @return True if everything was delivered, false if the timeout ran out first.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+
+    public boolean awaitDelivery(long timeout, TimeUnit unit) throws InterruptedException {
+        long target = claimed.get();
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (delivered < target) {
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            LockSupport.parkNanos(AWAIT_POLL_NANOS);
+        }
+        return true;
+    }
+
+    /**
+     * Delivers the events already queued, then stops the dispatcher thread.
+     */
+
+    @Override
+    public void close() {
+        closed = true;
+        Thread thread = dispatcher;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Runs on the dispatcher thread.
+
+    private void dispatch() {
+        while (!closed || consumed < claimed.get()) {
+            long sequence = consumed;
+            int slot = (int) sequence & mask;
+            LibraryEvent event = ring.get(slot);
+            if (event == null) {
+                if (sequence == claimed.get()) {
+                    // Nothing claimed: sleep until a publisher or close wakes us. The slot is checked again after
+                    // raising the flag, and publishers check the flag after filling a slot, so a wake-up can't be missed
+                    sleeping = true;
+                    if (ring.get(slot) == null && !closed) {
+                        LockSupport.park(this);
+                    }
+                    sleeping = false;
+                } else {
+                    Thread.onSpinWait(); // A publisher claimed the slot but hasn't filled it yet
+                }
+                continue;
+            }
+            ring.set(slot, null);
+            consumed = sequence + 1;
+            for (LibraryListener listener : listeners) {
+                try {
+                    listener.onEvent(event);
+                } catch (RuntimeException e) {
+                    // Report the failure and keep delivering, to this listener and the others
+                    Thread thread = Thread.currentThread();
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+                }
+            }
+            delivered = sequence + 1;
+        }
+    }
+}
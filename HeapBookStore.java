@@ -0,0 +1,155 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Keeps every book of a library as a normal object, in an array of rows found through a RowIndex, which
+ * also keeps the IDs in order for paging. Lookups are read optimistically and retried under a lock if add
+ * or remove got in the way, so get and page can run while the library changes the store. Books are their
+ * own storage, so updates have nothing to do. This is the default store.
+ */
+
+public class HeapBookStore implements BookStore {
+
+    private static final int MIN_CAPACITY = 16;
+
+    // The book in each row, and the row of each ID. Guarded by lock.
+
+    private Book[] books = new Book[MIN_CAPACITY];
+    private final RowIndex rows = new RowIndex();
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * Nothing to do: books find their library through the library itself.
+     *
+     * @param library The library the store holds books for.
+     */
+
+    @Override
+    public void bind(Library library) {
+    }
+
+    /**
+     * Keeps the book, in place of any book held for its ID.
+     *
+     * @param book The book to add.
+     */
+
+    @Override
+    public void add(Book book) {
+        int id = book.getBookId();
+        long stamp = lock.writeLock();
+        try {
+            int row = rows.find(id);
+            if (row < 0) {
+                row = rows.insert(id);
+                if (row == books.length) {
+                    books = Arrays.copyOf(books, books.length * 2);
+                }
+            }
+            books[row] = book;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Drops the book, if it is the one held for its ID.
+     *
+     * @param book The book to remove.
+     */
+
+    @Override
+    public void remove(Book book) {
+        long stamp = lock.writeLock();
+        try {
+            int row = rows.find(book.getBookId());
+            if (row >= 0 && books[row] == book) {
+                rows.remove(book.getBookId());
+                books[row] = null;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Gets a book by its ID, with an optimistic read that falls back to the read lock if add or remove
+     * got in the way. A torn read may throw, which is treated the same as a failed validation.
+     *
+     * @param bookId The ID of the book.
+     * @return The book, or null if the store doesn't hold one with that ID.
+     */
+
+    @Override
+    public Book get(int bookId) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0L) {
+            try {
+                Book book = bookAt(rows.find(bookId));
+                if (lock.validate(stamp)) {
+                    return book;
+                }
+            } catch (RuntimeException e) {
+                // Fall through to the locked read
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return bookAt(rows.find(bookId));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Gets one page of books in ID order, starting from the ID after afterId.
+     *
+     * @param afterId The ID the page starts after.
+     * @param limit   The most books to return.
+     * @return Up to limit books with IDs above afterId.
+     */
+
+    @Override
+    public ArrayList<Book> page(int afterId, int limit) {
+        ArrayList<Book> page = new ArrayList<>(Math.max(0, Math.min(limit, 1024)));
+        if (limit <= 0) {
+            return page;
+        }
+        long stamp = lock.readLock();
+        try {
+            rows.forEachAfter(afterId, id -> {
+                page.add(books[rows.find(id)]);
+                return page.size() < limit;
+            });
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return page;
+    }
+
+    /**
+     * Nothing to do: the book is its own storage.
+     *
+     * @param book The changed book.
+     */
+
+    @Override
+    public void update(Book book) {
+    }
+
+    /**
+     * Gets the number of books in the store.
+     *
+     * @return The number of books.
+     */
+
+    @Override
+    public int size() {
+        return rows.size();
+    }
+
+    private Book bookAt(int row) {
+        return row < 0 ? null : books[row];
+    }
+}
@@ -0,0 +1,132 @@
+import java.time.Instant;
+
+/**
+ * A patron's place in line for a copy of an ISBN.
+ *
+ * A hold waits until a copy comes back. The copy is then set aside for the patron, who has until the
+ * pickup deadline to borrow it before it goes to the next patron in line.
+ */
+
+public class Hold {
+
+    /**
+     * Where the hold is in its life.
+     */
+
+    public enum State {
+        WAITING, READY, PICKED_UP, EXPIRED, CANCELLED
+    }
+
+    private final Patron patron;
+    private final String ISBN;
+
+    // Changed by the library under its hold line's lock while waiting, and under the copy's lock once ready.
+
+    private volatile State state = State.WAITING;
+    private volatile Book book;
+    private volatile Instant pickupBy;
+    private TimerWheel.Timer<Hold> expiry;
+
+    /**
+     * Constructs a waiting Hold.
+     *
+     * @param patron The patron waiting.
+     * @param ISBN   The ISBN they are waiting for.
+     */
+
+    Hold(Patron patron, String ISBN) {
+        this.patron = patron;
+        this.ISBN = ISBN;
+    }
+
+    /**
+     * Gets the patron the hold is for.
+     *
+     * @return The patron.
+     */
+
+    public Patron getPatron() {
+        return patron;
+    }
+
+    /**
+     * Gets the ISBN the patron is waiting for.
+     *
+     * @return The ISBN.
+     */
+
+    public String getISBN() {
+        return ISBN;
+    }
+
+    /**
+     * Gets where the hold is in its life.
+     *
+     * @return The state.
+     */
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Gets the copy set aside for the patron.
+     *
+     * @return The copy, or null while the hold is waiting.
+     */
+
+    public Book getBook() {
+        return book;
+    }
+
+    /**
+     * Gets the time by which the patron must borrow the copy set aside for them.
+     *
+     * @return The pickup deadline, or null while the hold is waiting.
+     */
+
+    public Instant getPickupBy() {
+        return pickupBy;
+    }
+
+    // Sets a copy aside for the patron until the deadline.
+
+    void ready(Book book, Instant pickupBy, TimerWheel.Timer<Hold> expiry) {
+        this.book = book;
+        this.pickupBy = pickupBy;
+        this.expiry = expiry;
+        this.state = State.READY;
+    }
+
+    // Puts a ready hold back to waiting, returning the expiry timer to cancel.
+
+    TimerWheel.Timer<Hold> unready() {
+        TimerWheel.Timer<Hold> timer = expiry;
+        expiry = null;
+        book = null;
+        pickupBy = null;
+        state = State.WAITING;
+        return timer;
+    }
+
+    // Ends the hold, returning the expiry timer to cancel if it was ready.
+
+    TimerWheel.Timer<Hold> end(State state) {
+        this.state = state;
+        TimerWheel.Timer<Hold> timer = expiry;
+        expiry = null;
+        return timer;
+    }
+
+    /**
+     * Returns a string representation of the hold.
+     *
+     * @return A string containing the patron ID, the ISBN, the state and the copy if one is set aside.
+     */
+
+    public String toString() {
+        Book book = this.book;
+        return ("HOLD [Patron ID: " + patron.getPatronID() + " / ISBN: " + ISBN + " / State: " + state
+                + (book == null ? "" : " / Book ID: " + book.getBookId() + " / Pick up by: " + pickupBy) + "]");
+    }
+}
@@ -0,0 +1,295 @@
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The lines of patrons waiting for each ISBN in one library, and the copies set aside for them.
+ *
+ * Each ISBN has its own line with its own lock, so holds on different titles never contend. Joining a
+ * line, reaching its head and cancelling a waiting hold are constant time, however long the line. A copy
+ * set aside has a pickup deadline in a timing wheel, so expired holds are found without looking at the rest.
+ *
+ * The library calls the methods that hand out or take back copies while it holds the copy's lock.
+ */
+
+class HoldQueues {
+
+    private static final long TICK_MILLIS = 1000;
+    private static final int SLOTS = 4096;
+
+    private final Map<String, Line> lines = new ConcurrentHashMap<>();
+    private final Map<Integer, Hold> readyByBook = new ConcurrentHashMap<>();
+    private final TimerWheel<Hold> expiries = new TimerWheel<>(TICK_MILLIS, SLOTS);
+    private volatile Duration pickupWindow = Duration.ofDays(7);
+    private volatile Clock clock = Clock.systemUTC();
+
+    /**
+     * Sets how long a patron has to pick up a copy set aside for them, and the clock deadlines are kept by.
+     *
+     * @param pickupWindow The time from a copy being set aside to its hold expiring.
+     * @param clock        The clock.
+     */
+
+    void setPolicy(Duration pickupWindow, Clock clock) {
+        if (pickupWindow.isNegative()) {
+            throw new IllegalArgumentException("Pickup window can't be negative: " + pickupWindow);
+        }
+        this.pickupWindow = pickupWindow;
+        this.clock = clock;
+    }
+
+    /**
+     * Puts a patron at the back of the line for an ISBN.
+     *
+     * @param patron The patron.
+     * @param ISBN   The ISBN.
+     * @return The new hold, or the patron's hold already in line or ready for that ISBN.
+     */
+
+    Hold place(Patron patron, String ISBN) {
+        while (true) {
+            Line line = lines.computeIfAbsent(ISBN, Line::new);
+            synchronized (line) {
+                if (line.removed) {
+                    continue; // Emptied and dropped meanwhile; a new line takes its place
+                }
+                Hold hold = line.byPatron.get(patron.getPatronID());
+                if (hold == null) {
+                    hold = new Hold(patron, ISBN);
+                    line.byPatron.put(patron.getPatronID(), hold);
+                    line.queue.addLast(hold);
+                    line.waiting++;
+                }
+                return hold;
+            }
+        }
+    }
+
+    /**
+     * Sets an available copy aside for the patron at the head of its ISBN's line, if anyone is waiting.
+     * The caller holds the copy's lock and changes its status if a hold is returned.
+     *
+     * @param book The copy.
+     * @return The hold the copy is now set aside for, or null if no one is waiting.
+     */
+
+    Hold nextFor(Book book) {
+        Line line = book.getISBN() == null ? null : lines.get(book.getISBN());
+        if (line == null) {
+            return null;
+        }
+        synchronized (line) {
+            Hold hold;
+            while ((hold = line.queue.pollFirst()) != null) {
+                if (hold.getState() == Hold.State.WAITING) {
+                    line.waiting--;
+                    Instant pickupBy = clock.instant().plus(pickupWindow);
+                    hold.ready(book, pickupBy, expiries.schedule(hold, pickupBy.toEpochMilli()));
+                    readyByBook.put(book.getBookId(), hold);
+                    return hold;
+                }
+                line.cancelled--; // Cancelled while waiting, and left in the queue until now
+            }
+            dropIfEmpty(line);
+            return null;
+        }
+    }
+
+    /**
+     * Gets the copy set aside for a patron's hold on an ISBN.
+     *
+     * @param patron The patron.
+     * @param ISBN   The ISBN.
+     * @return The copy, or null if the patron has no hold on the ISBN or is still waiting.
+     */
+
+    Book readyFor(Patron patron, String ISBN) {
+        Line line = ISBN == null ? null : lines.get(ISBN);
+        if (line == null) {
+            return null;
+        }
+        synchronized (line) {
+            Hold hold = line.byPatron.get(patron.getPatronID());
+            return hold == null ? null : hold.getBook();
+        }
+    }
+
+    /**
+     * Lets the patron a copy is set aside for have it. The caller holds the copy's lock and checks it out.
+     *
+     * @param book   The copy.
+     * @param patron The patron borrowing it.
+     * @return True if the copy was set aside for that patron, whose hold is now picked up.
+     */
+
+    boolean claim(Book book, Patron patron) {
+        Hold hold = readyByBook.get(book.getBookId());
+        if (hold == null || hold.getPatron().getPatronID() != patron.getPatronID()) {
+            return false;
+        }
+        readyByBook.remove(book.getBookId());
+        finish(hold, Hold.State.PICKED_UP);
+        return true;
+    }
+
+    /**
+     * Ends the hold a copy is set aside for, if any. The caller holds the copy's lock and makes it available.
+     *
+     * @param book  The copy.
+     * @param state How the hold ended.
+     * @return The hold ended, or null if the copy wasn't set aside.
+     */
+
+    Hold release(Book book, Hold.State state) {
+        Hold hold = readyByBook.remove(book.getBookId());
+        if (hold != null) {
+            finish(hold, state);
+        }
+        return hold;
+    }
+
+    /**
+     * Ends a hold whose pickup deadline passed, unless its copy was picked up or released meanwhile. The
+     * caller holds the copy's lock and makes it available.
+     *
+     * @param hold The hold.
+     * @return True if the hold was still ready and has now expired.
+     */
+
+    boolean expire(Hold hold) {
+        Book book = hold.getBook();
+        if (book == null || !readyByBook.remove(book.getBookId(), hold)) {
+            return false;
+        }
+        finish(hold, Hold.State.EXPIRED);
+        return true;
+    }
+
+    /**
+     * Puts the patron a copy was set aside for back at the head of the line, for a copy that is leaving the
+     * library or changing ISBN. The caller holds the copy's lock.
+     *
+     * @param book The copy.
+     */
+
+    void requeue(Book book) {
+        Hold hold = readyByBook.remove(book.getBookId());
+        if (hold == null) {
+            return;
+        }
+        TimerWheel.Timer<Hold> timer = hold.unready();
+        if (timer != null) {
+            expiries.cancel(timer);
+        }
+        Line line = lines.get(hold.getISBN()); // Still there: a ready hold keeps its line
+        synchronized (line) {
+            line.queue.addFirst(hold);
+            line.waiting++;
+        }
+    }
+
+    /**
+     * Cancels a hold that is still waiting.
+     *
+     * @param hold The hold.
+     * @return True if the hold was waiting and is now cancelled.
+     */
+
+    boolean cancelWaiting(Hold hold) {
+        Line line = lines.get(hold.getISBN());
+        if (line == null) {
+            return false;
+        }
+        synchronized (line) {
+            if (hold.getState() != Hold.State.WAITING || line.byPatron.get(hold.getPatron().getPatronID()) != hold) {
+                return false;
+            }
+            hold.end(Hold.State.CANCELLED);
+            line.byPatron.remove(hold.getPatron().getPatronID());
+            line.waiting--;
+            // Cancelled holds are skipped when they reach the head; if they pile up, sweep them out at once
+            if (++line.cancelled > 64 && line.cancelled > line.waiting) {
+                line.queue.removeIf(waiting -> waiting.getState() != Hold.State.WAITING);
+                line.cancelled = 0;
+            }
+            dropIfEmpty(line);
+            return true;
+        }
+    }
+
+    /**
+     * Takes out the holds whose pickup deadline has passed. They are still ready; the caller checks each
+     * under its copy's lock, since the patron may have picked the copy up meanwhile.
+     *
+     * @return The holds past their deadline.
+     */
+
+    List<Hold> expired() {
+        return expiries.advance(clock.millis());
+    }
+
+    /**
+     * Gets the number of patrons waiting for an ISBN.
+     *
+     * @param ISBN The ISBN.
+     * @return The number of waiting holds.
+     */
+
+    int waiting(String ISBN) {
+        Line line = ISBN == null ? null : lines.get(ISBN);
+        if (line == null) {
+            return 0;
+        }
+        synchronized (line) {
+            return line.waiting;
+        }
+    }
+
+    // Ends a hold that is no longer ready and lets the patron join the line for the ISBN again.
+
+    private void finish(Hold hold, Hold.State state) {
+        TimerWheel.Timer<Hold> timer = hold.end(state);
+        if (timer != null) {
+            expiries.cancel(timer);
+        }
+        Line line = lines.get(hold.getISBN());
+        if (line != null) {
+            synchronized (line) {
+                line.byPatron.remove(hold.getPatron().getPatronID(), hold);
+                dropIfEmpty(line);
+            }
+        }
+    }
+
+    // A line with no holds in it is dropped, so ISBNs no one waits for any more don't keep one. Called under
+    // the line's lock.
+
+    private void dropIfEmpty(Line line) {
+        if (line.byPatron.isEmpty()) {
+            line.removed = true;
+            lines.remove(line.ISBN, line);
+        }
+    }
+
+    // The holds on one ISBN: the waiting ones in order, and every live one by patron ID so a patron joins at
+    // most once. Cancelled holds stay in the queue until they reach the head or are swept out.
+
+    private static final class Line {
+
+        final String ISBN;
+        final ArrayDeque<Hold> queue = new ArrayDeque<>();
+        final Map<Integer, Hold> byPatron = new HashMap<>();
+        int waiting;
+        int cancelled;
+        boolean removed;
+
+        Line(String ISBN) {
+            this.ISBN = ISBN;
+        }
+    }
+}
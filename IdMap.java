@@ -0,0 +1,199 @@
+import java.util.Arrays;
+
+/**
+ * A hash map keyed by primitive int ids.
+ * Keys are stored in an int array so lookups never box an Integer.
+ *
+ * The map is not thread safe. A reader that doesn't hold the lock its writers use can see keys and values
+ * of different versions of the table, so it must check afterwards that no write ran meanwhile and retry
+ * under the lock if one did, as Library does with its optimistic reads.
+ *
+ * @param <V> The type of the values stored in the map.
+ */
+
+public class IdMap<V> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private int[] keys;
+    private Object[] values;
+    private int size;
+
+    /**
+     * Constructs an empty IdMap.
+     */
+
+    public IdMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Constructs an empty IdMap sized to hold the expected number of entries without resizing.
+     *
+     * @param expectedSize The number of entries the map is expected to hold.
+     */
+
+    public IdMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        this.keys = new int[capacity];
+        this.values = new Object[capacity];
+    }
+
+    /**
+     * Gets the value stored for an id.
+     *
+     * @param id The id to look up.
+     * @return The value for the id, or null if there is none.
+     */
+
+    @SuppressWarnings("unchecked")
+    public V get(int id) {
+        // Read each array once and probe by the length of values, so an unlocked reader racing a resize
+        // either fails fast or terminates at an empty slot instead of looping.
+        int[] keys = this.keys;
+        Object[] values = this.values;
+        int mask = values.length - 1;
+        for (int i = slot(id, mask); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == id) {
+                return (V) values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stores a value for an id, replacing any previous value.
+     *
+     * @param id    The id to store the value under.
+     * @param value The value to store. Must not be null.
+     * @return The previous value for the id, or null if there was none.
+     */
+
+    @SuppressWarnings("unchecked")
+    public V put(int id, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("IdMap does not store null values");
+        }
+        if ((size + 1) * 2 > keys.length) {
+            resize(keys.length << 1);
+        }
+        int mask = keys.length - 1;
+        int i = slot(id, mask);
+        while (values[i] != null) {
+            if (keys[i] == id) {
+                V previous = (V) values[i];
+                values[i] = value;
+                return previous;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = id;
+        values[i] = value;
+        size++;
+        return null;
+    }
+
+    /**
+     * Removes the value stored for an id.
+     *
+     * @param id The id to remove.
+     * @return The removed value, or null if there was none.
+     */
+
+    @SuppressWarnings("unchecked")
+    public V remove(int id) {
+        int mask = keys.length - 1;
+        int i = slot(id, mask);
+        while (values[i] != null) {
+            if (keys[i] == id) {
+                V removed = (V) values[i];
+                closeGap(i, mask);
+                size--;
+                return removed;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Gets the number of entries in the map.
+     *
+     * @return The number of entries.
+     */
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Grows the map up front so it can hold the expected number of entries without resizing.
+     *
+     * @param expectedSize The number of entries the map is expected to hold.
+     */
+
+    public void ensureCapacity(int expectedSize) {
+        int capacity = keys.length;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        if (capacity > keys.length) {
+            resize(capacity);
+        }
+    }
+
+    /**
+     * Removes all entries from the map.
+     */
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    // Linear probing removal: shift later entries of the same probe run back into the gap.
+
+    private void closeGap(int gap, int mask) {
+        int i = gap;
+        while (true) {
+            i = (i + 1) & mask;
+            if (values[i] == null) {
+                break;
+            }
+            int home = slot(keys[i], mask);
+            boolean movable = gap <= i ? (home <= gap || home > i) : (home <= gap && home > i);
+            if (movable) {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                gap = i;
+            }
+        }
+        values[gap] = null;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldValues[j] != null) {
+                int i = slot(oldKeys[j], mask);
+                while (values[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    private static int slot(int id, int mask) {
+        int h = id * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
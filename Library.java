@@ -1,7 +1,31 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
 import java.time.LocalDate;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
-import java.util.List;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * This class represents a library where books can be borrowed and returned and 
@@ -11,48 +35,309 @@ import java.util.Iterator;
 
 public class Library {
 
-    private ArrayList<Book> allBooks;
-    private ArrayList<Author> allAuthors;
-    private ArrayList<Patron> allPatrons;
+    // Holds the books themselves. The default store keeps them as objects; others lay them out differently.
+
+    private final BookStore bookStore;
+
+    // Kept in ID order in concurrent skip lists: removals don't shift anything, pages can resume after
+    // the last ID shown, and streams can walk them lazily while the catalog changes.
+
+    private NavigableMap<Integer, Author> allAuthors;
+    private NavigableMap<Integer, Patron> allPatrons;
+
+    // Secondary indexes kept in step with the book store so searches don't scan the catalog. Buckets are
+    // sorted arrays of book IDs that never change once stored, so they can be paged and streamed the same
+    // way as the catalog, and they don't keep books of a store that makes them on demand alive. Titles and
+    // author names are also indexed by word and trigram for typeahead and typo-tolerant searches, once the
+    // first such search asks for it. The maps by key are concurrent maps, so optimistic reads never walk a
+    // table a writer is resizing.
+
+    private Map<String, BookIds> booksByISBN;
+    private TextIndex booksByTitle;
+    private TextIndex booksByAuthor;
+
+    // Id registries so the desk can resolve an id without walking a list.
+
+    private IdMap<Author> authorsById;
+    private IdMap<Patron> patronsById;
+
+    // Copies available to borrow, per ISBN. Replaced as a whole when the counts are rebuilt.
+
+    private volatile AvailabilityTable availability = new AvailabilityTable(this::isShelved);
+
+    // While the counts are being rebuilt, the new table and the copies counted into it so far. Only one
+    // rebuild runs at a time.
+
+    private volatile Recount recount;
+    private final Object recountLock = new Object();
+
+    // Books out on loan, ordered by due date.
+
+    private final DueDateIndex dueDates = new DueDateIndex();
+
+    // Patrons waiting for each ISBN, and the copies set aside for them until their pickup deadline.
+
+    private final HoldQueues holds = new HoldQueues();
+
+    // Write-ahead journal of every change, if one is attached.
+
+    private volatile LibraryJournal journal;
+
+    // Delivers borrow, return and overdue events to listeners, off the caller's thread.
+
+    private final EventBus events = new EventBus();
+
+    // Guards the catalog structures above. Borrowing and returning lock the individual book instead,
+    // so checkouts never wait on this lock; lookups use optimistic reads and only fall back to the
+    // read lock if a writer got in the way.
+
+    private final StampedLock catalogLock = new StampedLock();
+
+    // Immutable versions of the catalog for readers, made the first time one is asked for. From then on each
+    // catalog write records its changes in the editor and publishes the next version as it releases the
+    // write lock, so a version never shows half a write. Exact searches read the current version instead
+    // of the indexes, so they never wait on a writer.
+
+    private volatile CatalogView view;
+    private CatalogView.Editor viewEditor;
+
+    // Code that locks the catalogs of several libraries at once locks them in the order they were made,
+    // so two such changes can't each hold a lock the other is waiting for.
+
+    private static final AtomicLong created = new AtomicLong();
+    private final long rank = created.incrementAndGet();
+
+    static final Comparator<Library> LOCK_ORDER = Comparator.comparingLong(library -> library.rank);
+
+    // Books fetched per page when streaming the whole catalog.
+
+    private static final int STREAM_PAGE = 256;
+
+    // The most characters toString reserves before it starts writing.
+
+    private static final int MAX_REPORT_PRESIZE = 1 << 20;
 
     /**
-     * Constructs a new Library object.
+     * Constructs a new Library object that keeps its books as normal objects.
      */
 
     public Library() {
-        this.allBooks = new ArrayList<>();
-        this.allAuthors = new ArrayList<>();
-        this.allPatrons = new ArrayList<>();
+        this(new HeapBookStore());
+    }
+
+    /**
+     * Constructs a new Library object that keeps its books in the given store. Books the store already
+     * holds, such as those of a reopened OffHeapBookStore, are indexed, and their authors and borrowers are
+     * added to the library.
+     * 
+     * @param bookStore A store not used by any other library.
+     */
+
+    public Library(BookStore bookStore) {
+        this.bookStore = bookStore;
+        this.allAuthors = new ConcurrentSkipListMap<>();
+        this.allPatrons = new ConcurrentSkipListMap<>();
+        this.booksByISBN = new ConcurrentHashMap<>();
+        this.booksByTitle = newTitleIndex();
+        this.booksByAuthor = newAuthorIndex();
+        this.authorsById = new IdMap<>();
+        this.patronsById = new IdMap<>();
+        bookStore.bind(this);
+        for (Book book : books()) {
+            adoptStoredBook(book);
+        }
     }
 
     /**
      * Retrieves all books in the library.
      * 
-     * @return The list of all books in the library.
+     * @return A copy of the list of all books in the library.
      */
 
     public ArrayList<Book> getAllBooks(){
-        return allBooks;
+        long stamp = catalogLock.readLock();
+        try {
+            return bookStore.page(0, Integer.MAX_VALUE);
+        } finally {
+            catalogLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Retrieves one page of the books in the library, in ID order.
+     * Pass 0 for the first page, then the ID of the last book of each page to get the next one.
+     * 
+     * @param afterId The ID the page starts after.
+     * @param limit The most books to return.
+     * @return Up to limit books with IDs above afterId.
+     */
+
+    public ArrayList<Book> getBooks(int afterId, int limit){
+        return read(() -> bookStore.page(afterId, limit));
+    }
+
+    /**
+     * Streams the books in the library in ID order. The stream reads the catalog lazily as it goes,
+     * without copying it, and reflects some, all or none of the changes made while it runs.
+     * 
+     * @return A stream of all books in the library.
+     */
+
+    public Stream<Book> streamBooks(){
+        return pages(afterId -> getBooks(afterId, STREAM_PAGE));
     }
 
    /**
      * Retrieves all authors in the library.
      * 
-     * @return The list of all authors in the library.
+     * @return A copy of the list of all authors in the library.
      */ 
 
     public ArrayList<Author> getAllAuthors(){
-        return allAuthors;
+        return copyOf(allAuthors.values());
+    }
+
+    /**
+     * Retrieves one page of the authors in the library, in ID order.
+     * Pass 0 for the first page, then the ID of the last author of each page to get the next one.
+     * 
+     * @param afterId The ID the page starts after.
+     * @param limit The most authors to return.
+     * @return Up to limit authors with IDs above afterId.
+     */
+
+    public ArrayList<Author> getAuthors(int afterId, int limit){
+        return page(allAuthors, afterId, limit);
+    }
+
+    /**
+     * Streams the authors in the library in ID order, reading the catalog lazily as it goes.
+     * 
+     * @return A stream of all authors in the library.
+     */
+
+    public Stream<Author> streamAuthors(){
+        return allAuthors.values().stream();
     }
 
     /**
      * Retrieves all patrons in the library.
      * 
-     * @return The list of all patrons in the library.
+     * @return A copy of the list of all patrons in the library.
      */
 
     public ArrayList<Patron> getAllPatrons(){
-        return allPatrons;
+        return copyOf(allPatrons.values());
+    }
+
+    /**
+     * Retrieves one page of the patrons in the library, in ID order.
+     * Pass 0 for the first page, then the ID of the last patron of each page to get the next one.
+     * 
+     * @param afterId The ID the page starts after.
+     * @param limit The most patrons to return.
+     * @return Up to limit patrons with IDs above afterId.
+     */
+
+    public ArrayList<Patron> getPatrons(int afterId, int limit){
+        return page(allPatrons, afterId, limit);
+    }
+
+    /**
+     * Streams the patrons in the library in ID order, reading the catalog lazily as it goes.
+     * 
+     * @return A stream of all patrons in the library.
+     */
+
+    public Stream<Patron> streamPatrons(){
+        return allPatrons.values().stream();
+    }
+
+    // Live views for code that already holds the catalog lock, such as snapshot writing.
+
+    Collection<Book> books(){
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<Book> iterator() {
+                return new PageIterator(afterId -> bookStore.page(afterId, STREAM_PAGE));
+            }
+
+            @Override
+            public int size() {
+                return bookStore.size();
+            }
+        };
+    }
+
+    Collection<Author> authors(){
+        return Collections.unmodifiableCollection(allAuthors.values());
+    }
+
+    Collection<Patron> patrons(){
+        return Collections.unmodifiableCollection(allPatrons.values());
+    }
+
+    /**
+     * Finds a book in the library by its ID.
+     * 
+     * @param bookId The ID of the book.
+     * @return The book with the specified ID, or null if not found.
+     */
+
+    public Book findBookById(int bookId){
+        return read(() -> bookStore.get(bookId));
+    }
+
+    /**
+     * Gets the current version of the catalog: an immutable view that any number of lookups can share
+     * without locks and without seeing a write half done. Hold on to it for as long as the lookups should
+     * agree, and call this again for a newer one.
+     * The first call builds the view from the whole catalog; from then on every catalog write also updates
+     * it, and exact searches of the library are answered from it.
+     * 
+     * @return The current version of the catalog.
+     */
+
+    public CatalogView view(){
+        CatalogView current = view;
+        if (current != null) {
+            return current;
+        }
+        long stamp = catalogLock.writeLock();
+        try {
+            if (view == null) {
+                CatalogView.Editor editor = CatalogView.EMPTY.edit();
+                for (Book book : books()) {
+                    editor.add(book);
+                }
+                view = editor.publish();
+            }
+            return view;
+        } finally {
+            unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Finds an author in the library by their ID.
+     * 
+     * @param authorId The ID of the author.
+     * @return The author with the specified ID, or null if not found.
+     */
+
+    public Author findAuthorById(int authorId){
+        return read(() -> authorsById.get(authorId));
+    }
+
+    /**
+     * Finds a patron in the library by their ID.
+     * 
+     * @param patronId The ID of the patron.
+     * @return The patron with the specified ID, or null if not found.
+     */
+
+    public Patron findPatronById(int patronId){
+        return read(() -> patronsById.get(patronId));
     }
 
     /**
@@ -62,10 +347,112 @@ public class Library {
      */
 
     public void addBook(Book book) {
-        allBooks.add(book);
-        Author author = book.getAuthor();
-        if (author != null){
-            author.addWrittenBook(book);
+        long stamp = catalogLock.writeLock();
+        try {
+            insertBook(book, true);
+        } finally {
+            unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Adds many books to the library at once, taking the catalog lock once for the whole batch.
+     * 
+     * @param books The books to be added.
+     */
+
+    public void addBooks(Collection<Book> books) {
+        long stamp = catalogLock.writeLock();
+        try {
+            for (Book book : books) {
+                insertBook(book, true);
+            }
+        } finally {
+            unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Adds many books as part of a bulk load, taking the catalog lock once for the whole batch and leaving
+     * them out of the search indexes. The books can be found by ID, listed and borrowed at once, but
+     * searches and holds only see them after rebuildIndexes, which the loader calls once it is done.
+     * 
+     * @param books The books to be added.
+     */
+
+    void addBooksUnindexed(Collection<Book> books) {
+        long stamp = catalogLock.writeLock();
+        try {
+            for (Book book : books) {
+                insertBook(book, false);
+            }
+        } finally {
+            unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Files the books with IDs from fromId up to but not including toId in the search indexes, and in the
+     * catalog view if one is in use, after a bulk load added them with addBooksUnindexed. Books in the range
+     * that were deleted since are skipped, and books already filed are left as they are.
+     * 
+     * @param fromId The first ID of the range.
+     * @param toId The ID after the last one of the range.
+     */
+
+    void indexBooks(int fromId, int toId) {
+        long stamp = catalogLock.writeLock();
+        try {
+            for (Book book : bookStore.page(fromId - 1, toId - fromId)) {
+                if (book.getBookId() < toId) {
+                    indexBook(book);
+                }
+            }
+        } finally {
+            unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Rebuilds the search indexes, and the catalog view if one is in use, from the books in the store in a
+     * single pass in ID order. Used at the end of a bulk load, which is cheaper than filing books one by one.
+     */
+
+    void rebuildIndexes() {
+        long stamp = catalogLock.writeLock();
+        try {
+            Map<String, BookIds> byISBN = new ConcurrentHashMap<>();
+            TextIndex byTitle = newTitleIndex();
+            TextIndex byAuthor = newAuthorIndex();
+            CatalogView.Editor editor = viewEditor();
+            if (editor != null) {
+                editor.clear();
+            }
+            int afterId = 0;
+            for (ArrayList<Book> page = bookStore.page(afterId, STREAM_PAGE); !page.isEmpty();
+                    page = bookStore.page(afterId, STREAM_PAGE)) {
+                for (Book book : page) {
+                    addToIndex(byISBN, book.getISBN(), book);
+                    byTitle.add(book);
+                    byAuthor.add(book);
+                    if (editor != null) {
+                        editor.add(book);
+                    }
+                }
+                afterId = page.get(page.size() - 1).getBookId();
+            }
+            // Prefix and approximate searches keep working if they were in use
+            if (booksByTitle.hasWords()) {
+                byTitle.buildWords();
+            }
+            if (booksByAuthor.hasWords()) {
+                byAuthor.buildWords();
+            }
+            booksByISBN = byISBN;
+            booksByTitle = byTitle;
+            booksByAuthor = byAuthor;
+        } finally {
+            unlockWrite(stamp);
         }
     }
 
@@ -76,13 +463,32 @@ public class Library {
      */
 
     public void deleteBook(Book book) {
-        allBooks.remove(book);
-        Author author = book.getAuthor();
-    if (author != null) {
-        author.deleteWrittenBook(book);
+        long stamp = catalogLock.writeLock();
+        try {
+            removeBook(book);
+        } finally {
+            unlockWrite(stamp);
+        }
     }
-        for (Patron patron : allPatrons) {
-            patron.removeBorrowedBook(book);
+
+    /**
+     * Deletes a book from the library by its ID.
+     * 
+     * @param bookId The ID of the book to be deleted.
+     * @return True if the book was found and deleted, false otherwise.
+     */
+
+    public boolean deleteBook(int bookId) {
+        long stamp = catalogLock.writeLock();
+        try {
+            Book book = bookStore.get(bookId);
+            if (book == null) {
+                return false;
+            }
+            removeBook(book);
+            return true;
+        } finally {
+            unlockWrite(stamp);
         }
     }
 
@@ -93,10 +499,31 @@ public class Library {
      */
 
     public void addAuthor(Author author) {
-        allAuthors.add(author);
+        long stamp = catalogLock.writeLock();
+        try {
+            insertAuthor(author);
+        } finally {
+            unlockWrite(stamp);
+        }
     }
 
-    // Iterator used as modifying the array while iterating over it.
+    /**
+     * Adds many authors to the library at once, taking the catalog lock once.
+     * 
+     * @param authors The authors to be added.
+     */
+
+    public void addAuthors(Collection<Author> authors) {
+        long stamp = catalogLock.writeLock();
+        try {
+            authorsById.ensureCapacity(authorsById.size() + authors.size());
+            for (Author author : authors) {
+                insertAuthor(author);
+            }
+        } finally {
+            unlockWrite(stamp);
+        }
+    }
 
     /**
      * Deletes an author from the library.
@@ -105,18 +532,33 @@ public class Library {
      */
 
     public void deleteAuthor(Author author) {
-        // Remove books associated with the deleted author
-        Iterator<Book> iterator = allBooks.iterator();
-        while (iterator.hasNext()) {
-            Book book = iterator.next();
-            if (book.getAuthor().equals(author)) {
-                author.deleteWrittenBook(book);
-                iterator.remove(); 
-            }
+        long stamp = catalogLock.writeLock();
+        try {
+            removeAuthor(author);
+        } finally {
+            unlockWrite(stamp);
         }
+    }
 
-        // Remove the author
-        allAuthors.remove(author);
+    /**
+     * Deletes an author, and the books they wrote, from the library by the author's ID.
+     * 
+     * @param authorId The ID of the author to be deleted.
+     * @return True if the author was found and deleted, false otherwise.
+     */
+
+    public boolean deleteAuthor(int authorId) {
+        long stamp = catalogLock.writeLock();
+        try {
+            Author author = authorsById.get(authorId);
+            if (author == null) {
+                return false;
+            }
+            removeAuthor(author);
+            return true;
+        } finally {
+            unlockWrite(stamp);
+        }
     }
 
     /**
@@ -126,147 +568,1400 @@ public class Library {
      */
 
     public void addPatron(Patron patron) {
-        allPatrons.add(patron);
+        long stamp = catalogLock.writeLock();
+        try {
+            insertPatron(patron);
+        } finally {
+            unlockWrite(stamp);
+        }
     }
 
     /**
-     * Deletes a patron to the library.
+     * Adds many patrons to the library at once, taking the catalog lock once.
      * 
-     * @param patron The patron to be deleted.
+     * @param patrons The patrons to be added.
      */
 
-    public void deletePatron(Patron patron) {
-        if (!patron.getBorrowedBooks().isEmpty()) {
-            // If the patron has borrowed books, mark them as overdue
-            for (Book book : patron.getBorrowedBooks()) {
-                book.setStatus(Status.OVERDUE); 
+    public void addPatrons(Collection<Patron> patrons) {
+        long stamp = catalogLock.writeLock();
+        try {
+            patronsById.ensureCapacity(patronsById.size() + patrons.size());
+            for (Patron patron : patrons) {
+                insertPatron(patron);
             }
+        } finally {
+            unlockWrite(stamp);
         }
-        allPatrons.remove(patron);
     }
 
     /**
-     * Searches for books in the library by title.
+     * Deletes a patron to the library.
      * 
-     * @param title The title of the book to search for.
-     * @return A list of books with matching titles.
+     * @param patron The patron to be deleted.
      */
 
-    public ArrayList<Book> searchByTitle(String title) {
-        ArrayList<Book> result = new ArrayList<>();
-        for (Book book : allBooks) {
-            if (book.getTitle().toLowerCase().equalsIgnoreCase(title.toLowerCase())) {
-                result.add(book);
-            }
+    public void deletePatron(Patron patron) {
+        long stamp = catalogLock.writeLock();
+        try {
+            removePatron(patron);
+        } finally {
+            unlockWrite(stamp);
         }
-        return result;
     }
 
     /**
-     * Searches for books in the library by author.
+     * Deletes a patron from the library by their ID.
      * 
-     * @param authorName The name of the author to search for.
-     * @return A list of books written by the specified author.
+     * @param patronId The ID of the patron to be deleted.
+     * @return True if the patron was found and deleted, false otherwise.
      */
 
-    public ArrayList<Book> searchByAuthor(String authorName) {
-        ArrayList<Book> result = new ArrayList<>();
-        for (Book book : allBooks) {
-            if (book.getAuthor().getName().toLowerCase().equalsIgnoreCase(authorName.toLowerCase())) {
-                result.add(book);
+    public boolean deletePatron(int patronId) {
+        long stamp = catalogLock.writeLock();
+        try {
+            Patron patron = patronsById.get(patronId);
+            if (patron == null) {
+                return false;
             }
+            removePatron(patron);
+            return true;
+        } finally {
+            unlockWrite(stamp);
         }
-        return result;
     }
 
-    /**
-     * Searches for a book by its ISBN number.
-     * 
-     * @param isbn The ISBN number of the book.
-     * @return The book with the specified ISBN, or null if not found.
-     */
+    // Insertion bodies shared by the single and bulk adds. Callers hold the catalog write lock. A bulk load
+    // leaves books out of the search indexes and rebuilds them once at the end.
 
-    public ArrayList<Book> searchByISBN(String ISBN) {
-        ArrayList<Book> result = new ArrayList<>();
-        for (Book book : allBooks) {
-            if (book.getISBN().equals(ISBN)) {
-                result.add(book);
+    private void insertBook(Book book, boolean indexed) {
+        bookStore.add(book);
+        if (indexed) {
+            indexBook(book);
+        }
+        attach(book);
+        Author author = book.getAuthor();
+        if (author != null){
+            author.addWrittenBook(book);
+        }
+        LibraryJournal journal = this.journal;
+        if (journal != null) {
+            journal.bookAdded(book);
+        }
+    }
+
+    // Files a book a store already held when the library was made, with its author and loan.
+
+    private void adoptStoredBook(Book book) {
+        if (book.getBookStatus() == Status.ON_HOLD) {
+            // Holds live only in memory, so a copy stored while set aside goes back on the shelf
+            book.restore(Status.AVAILABLE, book.getDueDate(), null);
+            bookStore.update(book);
+        }
+        Author author = book.getAuthor();
+        if (author != null && authorsById.get(author.getAuthorID()) == null) {
+            allAuthors.put(author.getAuthorID(), author);
+            authorsById.put(author.getAuthorID(), author);
+        }
+        Patron borrower = book.getBorrower();
+        if (borrower != null) {
+            if (patronsById.get(borrower.getPatronID()) == null) {
+                allPatrons.put(borrower.getPatronID(), borrower);
+                patronsById.put(borrower.getPatronID(), borrower);
             }
+            borrower.addBorrowedBook(book);
+        }
+        indexBook(book);
+        attach(book);
+        if (author != null) {
+            author.addWrittenBook(book);
         }
-        return result;
     }
 
-    /**
-     * Allows a patron to borrow a book from the library.
-     * 
-     * @param patron The patron borrowing the book.
-     * @param book The book to be borrowed.
-     */
+    private void insertAuthor(Author author) {
+        allAuthors.put(author.getAuthorID(), author);
+        authorsById.put(author.getAuthorID(), author);
+        LibraryJournal journal = this.journal;
+        if (journal != null) {
+            journal.authorAdded(author);
+        }
+    }
 
-    public void borrowBook(Patron patron, Book book) {
-        book.borrowBook(patron);
+    private void insertPatron(Patron patron) {
+        allPatrons.put(patron.getPatronID(), patron);
+        patronsById.put(patron.getPatronID(), patron);
+        LibraryJournal journal = this.journal;
+        if (journal != null) {
+            journal.patronAdded(patron);
+        }
     }
 
-    /**
-     * Allows a patron to return a book to the library.
-     * 
-     * @param patron The patron returning the book.
-     * @param book The book to be returned.
-     */
+    // Removal bodies shared by the object and id overloads. Callers hold the catalog write lock.
 
-    public void returnBook(Patron patron, Book book) {
-        book.returnBook(patron);
+    private void removeBook(Book book) {
+        unlinkBook(book);
+        Author author = book.getAuthor();
+        if (author != null) {
+            author.deleteWrittenBook(book);
+        }
+        LibraryJournal journal = this.journal;
+        if (journal != null) {
+            journal.bookDeleted(book.getBookId());
+        }
     }
 
-    /**
-     * Generates a list of overdue books in the library.
-     */
+    // Deleting an author cascades to the books they wrote, found through the author rather than by scanning
+    // the catalog, so the cost follows the size of the author's bibliography.
 
-    public void OverdueBookList() {
-        List<Book> overdueBooks = new ArrayList<>();
-        for (Book book : allBooks) {
-            if ((book.getBookStatus() == Status.CHECKED_OUT || book.getBookStatus() == Status.OVERDUE) && book.getDueDate() != null && LocalDate.now().isAfter(book.getDueDate())) {
-                book.setStatus(Status.OVERDUE); // Update status to overdue
-                overdueBooks.add(book); // Add overdue book to the list
+    private void removeAuthor(Author author) {
+        for (int bookId : author.getWrittenBookIds(this)) {
+            Book book = bookStore.get(bookId);
+            if (book != null) {
+                unlinkBook(book);
+                author.deleteWrittenBook(book);
             }
         }
 
-    // Print the list of overdue books and update their Status
+        // Remove the author
+        allAuthors.remove(author.getAuthorID(), author);
+        authorsById.remove(author.getAuthorID());
+        LibraryJournal journal = this.journal;
+        if (journal != null) {
+            journal.authorDeleted(author.getAuthorID());
+        }
+    }
+
+    // Takes a book out of its indexes, the availability counts, its borrower's loans and finally the store.
+
+    private void unlinkBook(Book book) {
+        if (bookStore.get(book.getBookId()) != book) {
+            return;
+        }
+        unindexBook(book);
+        detach(book);
+        bookStore.remove(book);
+    }
 
-        if (!overdueBooks.isEmpty()) {
-            System.out.println("Overdue books:");
-            System.out.println("**************");
-            for (Book book : overdueBooks) {
-                System.out.println("BOOK [ID: " + book.getBookId() + " Title: '" + book.getTitle() + "']");
+    private void removePatron(Patron patron) {
+        ArrayList<Book> borrowedBooks = patron.getBorrowedBooks();
+        if (!borrowedBooks.isEmpty()) {
+            // If the patron has borrowed books, mark them as overdue
+            for (Book book : borrowedBooks) {
+                book.setStatus(Status.OVERDUE); 
             }
-        } else {
-            System.out.println("No books are currently overdue.");
+        }
+        allPatrons.remove(patron.getPatronID(), patron);
+        patronsById.remove(patron.getPatronID());
+        LibraryJournal journal = this.journal;
+        if (journal != null) {
+            journal.patronDeleted(patron.getPatronID());
         }
     }
 
     /**
-     * Generates a string representation of the library.
+     * Searches for books in the library by title.
      * 
-     * @return A string containing information about all books, authors, and patrons in the library.
-     */
+     * @param title The title of the book to search for.
+     * @return A list of books with matching titles.
+     */
 
-    @Override
-    public String toString() {
-        String result = "Library [\n\n";
+    public ArrayList<Book> searchByTitle(String title) {
+        CatalogView current = view;
+        if (current != null) {
+            return current.searchByTitle(title);
+        }
+        String key = searchKey(title);
+        return read(() -> booksByTitle.exact(key));
+    }
+
+    /**
+     * Searches for books by the start of their title, for suggestions while a title is being typed.
+     * Titles that start with the text come first, then titles with a word that does, such as "wi" finding "The Wish".
+     * Case and accents are ignored.
+     * 
+     * @param prefix The text typed so far.
+     * @param limit The most books to return.
+     * @return Up to limit books, best match first.
+     */
+
+    public ArrayList<Book> searchByTitlePrefix(String prefix, int limit) {
+        String key = searchKey(prefix);
+        prepareWords(true);
+        return read(() -> booksByTitle.prefix(key, limit));
+    }
+
+    /**
+     * Searches for books with a title close to the given one, so misspelled titles still find the book.
+     * 
+     * @param title The title, possibly misspelled.
+     * @param limit The most books to return.
+     * @return Up to limit books, closest match first.
+     */
+
+    public ArrayList<Book> searchByTitleApproximate(String title, int limit) {
+        String key = searchKey(title);
+        prepareWords(true);
+        return read(() -> booksByTitle.similar(key, limit));
+    }
+
+    /**
+     * Searches for books in the library by author.
+     * 
+     * @param authorName The name of the author to search for.
+     * @return A list of books written by the specified author.
+     */
+
+    public ArrayList<Book> searchByAuthor(String authorName) {
+        CatalogView current = view;
+        if (current != null) {
+            return current.searchByAuthor(authorName);
+        }
+        String key = searchKey(authorName);
+        return read(() -> booksByAuthor.exact(key));
+    }
+
+    /**
+     * Searches for books by the start of their author's name, for suggestions while a name is being typed.
+     * Names that start with the text come first, then names with a word that does. Case and accents are ignored.
+     * 
+     * @param prefix The text typed so far.
+     * @param limit The most books to return.
+     * @return Up to limit books, best match first.
+     */
+
+    public ArrayList<Book> searchByAuthorPrefix(String prefix, int limit) {
+        String key = searchKey(prefix);
+        prepareWords(false);
+        return read(() -> booksByAuthor.prefix(key, limit));
+    }
+
+    /**
+     * Searches for books by an author whose name is close to the given one, so misspelled names still find them.
+     * 
+     * @param authorName The author's name, possibly misspelled.
+     * @param limit The most books to return.
+     * @return Up to limit books, closest match first.
+     */
+
+    public ArrayList<Book> searchByAuthorApproximate(String authorName, int limit) {
+        String key = searchKey(authorName);
+        prepareWords(false);
+        return read(() -> booksByAuthor.similar(key, limit));
+    }
+
+    /**
+     * Searches for a book by its ISBN number.
+     * 
+     * @param isbn The ISBN number of the book.
+     * @return The book with the specified ISBN, or null if not found.
+     */
+
+    public ArrayList<Book> searchByISBN(String ISBN) {
+        CatalogView current = view;
+        if (current != null) {
+            return current.searchByISBN(ISBN);
+        }
+        return read(() -> lookup(booksByISBN, ISBN));
+    }
+
+    /**
+     * Searches for books by title one page at a time, in ID order.
+     * Pass 0 for the first page, then the ID of the last book of each page to get the next one.
+     * 
+     * @param title The title of the book to search for.
+     * @param afterId The ID the page starts after.
+     * @param limit The most books to return.
+     * @return Up to limit books with matching titles and IDs above afterId.
+     */
+
+    public ArrayList<Book> searchByTitle(String title, int afterId, int limit) {
+        String key = searchKey(title);
+        return page(read(() -> booksByTitle.bucket(key)), afterId, limit);
+    }
+
+    /**
+     * Searches for books by author one page at a time, in ID order.
+     * Pass 0 for the first page, then the ID of the last book of each page to get the next one.
+     * 
+     * @param authorName The name of the author to search for.
+     * @param afterId The ID the page starts after.
+     * @param limit The most books to return.
+     * @return Up to limit books by the author with IDs above afterId.
+     */
+
+    public ArrayList<Book> searchByAuthor(String authorName, int afterId, int limit) {
+        String key = searchKey(authorName);
+        return page(read(() -> booksByAuthor.bucket(key)), afterId, limit);
+    }
+
+    /**
+     * Searches for books by ISBN one page at a time, in ID order.
+     * Pass 0 for the first page, then the ID of the last book of each page to get the next one.
+     * 
+     * @param ISBN The ISBN number of the book.
+     * @param afterId The ID the page starts after.
+     * @param limit The most books to return.
+     * @return Up to limit copies with the ISBN and IDs above afterId.
+     */
+
+    public ArrayList<Book> searchByISBN(String ISBN, int afterId, int limit) {
+        return page(read(() -> bucket(booksByISBN, ISBN)), afterId, limit);
+    }
+
+    /**
+     * Streams the books with a title, in ID order, reading the search index lazily as it goes.
+     * 
+     * @param title The title of the book to search for.
+     * @return A stream of the books with matching titles.
+     */
+
+    public Stream<Book> streamByTitle(String title) {
+        String key = searchKey(title);
+        return resolve(read(() -> booksByTitle.bucket(key)));
+    }
+
+    /**
+     * Streams the books by an author, in ID order, reading the search index lazily as it goes.
+     * 
+     * @param authorName The name of the author to search for.
+     * @return A stream of the books written by the author.
+     */
+
+    public Stream<Book> streamByAuthor(String authorName) {
+        String key = searchKey(authorName);
+        return resolve(read(() -> booksByAuthor.bucket(key)));
+    }
+
+    /**
+     * Streams the copies of an ISBN, in ID order, reading the search index lazily as it goes.
+     * 
+     * @param ISBN The ISBN number of the book.
+     * @return A stream of the copies with the ISBN.
+     */
+
+    public Stream<Book> streamByISBN(String ISBN) {
+        return resolve(read(() -> bucket(booksByISBN, ISBN)));
+    }
+
+    /**
+     * Gets the number of copies of a book that are available to borrow.
+     * 
+     * @param ISBN The ISBN of the book.
+     * @return The number of available copies, or 0 if the library holds no copy of the ISBN.
+     */
+
+    public int availableCopies(String ISBN) {
+        return availability.availableCopies(ISBN);
+    }
+
+    /**
+     * Rebuilds the availability counters from the books currently in the library. Copies can be borrowed and
+     * returned while it runs: each copy is counted under its own lock, changes to copies already counted
+     * are also made to the new counters, and the new counters replace the old ones in one step at the end.
+     */
+
+    public void resetAvailability() {
+        synchronized (recountLock) {
+            long stamp = catalogLock.readLock();
+            try {
+                Recount recount = new Recount(new AvailabilityTable(this::isShelved));
+                this.recount = recount;
+                for (Book book : books()) {
+                    synchronized (book) {
+                        if (book.getBookStatus() == Status.AVAILABLE) {
+                            recount.table.increment(book.getISBN(), book.getBookId());
+                        }
+                        recount.counted.add(book.getBookId());
+                    }
+                }
+                availability = recount.table;
+                this.recount = null;
+            } finally {
+                catalogLock.unlockRead(stamp);
+            }
+        }
+    }
+
+    /**
+     * Allows a patron to borrow a book from the library.
+     * 
+     * @param patron The patron borrowing the book.
+     * @param book The book to be borrowed.
+     */
+
+    public void borrowBook(Patron patron, Book book) {
+        book.borrowBook(patron);
+    }
+
+    /**
+     * Allows a patron to borrow a book from the library, using their IDs.
+     * 
+     * @param patronId The ID of the patron borrowing the book.
+     * @param bookId The ID of the book to be borrowed.
+     * @return True if both the patron and the book were found, false otherwise.
+     */
+
+    public boolean borrowBook(int patronId, int bookId) {
+        Patron patron = findPatronById(patronId);
+        Book book = findBookById(bookId);
+        if (patron == null || book == null) {
+            return false;
+        }
+        borrowBook(patron, book);
+        return true;
+    }
+
+    /**
+     * Lets a patron borrow any copy of an ISBN, for when it doesn't matter which. A copy set aside for the
+     * patron by a hold is theirs; otherwise one is taken off the ISBN's free list of copies on the shelf, in
+     * constant time however many copies the library holds. Each copy is checked out under its own lock, so
+     * patrons borrowing at the same time never get the same copy.
+     * 
+     * @param patron The patron borrowing the book.
+     * @param ISBN The ISBN of the book.
+     * @return The copy borrowed, or null if no copy of the ISBN is available to the patron.
+     */
+
+    public Book borrowByISBN(Patron patron, String ISBN) {
+        Book held = holds.readyFor(patron, ISBN);
+        if (held != null && lend(patron, held, ISBN)) {
+            return held;
+        }
+        int bookId;
+        while ((bookId = availability.poll(ISBN)) >= 0) {
+            Book book = bookStore.get(bookId);
+            if (book != null && lend(patron, book, ISBN)) {
+                return book;
+            }
+            // Borrowed, set aside, deleted or renumbered since it was put on the list; try the next copy
+        }
+        return null;
+    }
+
+    /**
+     * Allows a patron to return a book to the library.
+     * 
+     * @param patron The patron returning the book.
+     * @param book The book to be returned.
+     */
+
+    public void returnBook(Patron patron, Book book) {
+        book.returnBook(patron);
+    }
+
+    /**
+     * Allows a patron to return a book to the library, using their IDs.
+     * 
+     * @param patronId The ID of the patron returning the book.
+     * @param bookId The ID of the book to be returned.
+     * @return True if both the patron and the book were found, false otherwise.
+     */
+
+    public boolean returnBook(int patronId, int bookId) {
+        Patron patron = findPatronById(patronId);
+        Book book = findBookById(bookId);
+        if (patron == null || book == null) {
+            return false;
+        }
+        returnBook(patron, book);
+        return true;
+    }
+
+    /**
+     * Lets a patron borrow several books at once, for example at a self-checkout kiosk.
+     * Each copy is locked once, and goes on the patron's list of borrowed books before its lock is released,
+     * so a copy deleted mid-batch never stays on the patron's list. Nothing is printed; the outcome for each
+     * book is returned instead.
+     * 
+     * @param patron The patron borrowing the books.
+     * @param books The books to be borrowed.
+     * @return One result per book, in the order given.
+     */
+
+    public List<LoanResult> borrowBooks(Patron patron, Collection<Book> books) {
+        List<LoanResult> results = new ArrayList<>(books.size());
+        for (Book book : books) {
+            LoanResult.Outcome outcome;
+            synchronized (book) {
+                if (book.getLibrary() != this) {
+                    outcome = LoanResult.Outcome.NOT_IN_LIBRARY;
+                } else if (book.checkOut(patron)) {
+                    patron.addBorrowedBook(book);
+                    outcome = LoanResult.Outcome.BORROWED;
+                } else {
+                    outcome = LoanResult.Outcome.UNAVAILABLE;
+                }
+            }
+            results.add(new LoanResult(book, outcome));
+            if (outcome == LoanResult.Outcome.UNAVAILABLE) {
+                events.publish(new LibraryEvent(LibraryEvent.Type.BORROW_REJECTED, book, patron));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Lets a patron return several books at once.
+     * Each copy is locked once, and comes off the patron's list of borrowed books under that lock only if it
+     * is still out on loan, so a copy is never dropped from the list while it stays checked out. Nothing is
+     * printed; the outcome for each book is returned instead.
+     * 
+     * @param patron The patron returning the books.
+     * @param books The books to be returned.
+     * @return One result per book, in the order given.
+     */
+
+    public List<LoanResult> returnBooks(Patron patron, Collection<Book> books) {
+        List<LoanResult> results = new ArrayList<>(books.size());
+        for (Book book : books) {
+            LoanResult.Outcome outcome = LoanResult.Outcome.NOT_BORROWED_BY_PATRON;
+            synchronized (book) {
+                if (book.getBookStatus().isOnLoan() && patron.hasBook(book)) {
+                    patron.removeBorrowedBook(book);
+                    book.checkIn(patron);
+                    outcome = LoanResult.Outcome.RETURNED;
+                }
+            }
+            results.add(new LoanResult(book, outcome));
+        }
+        return results;
+    }
+
+    /**
+     * Puts a patron in line for the next copy of an ISBN that comes back. When one does, it is set aside for
+     * the patron at the head of the line, who can then borrow it like any other copy until the pickup deadline;
+     * after that it goes to the next patron. If copies are on the shelf already, one is set aside right away.
+     * 
+     * @param patron The patron placing the hold.
+     * @param ISBN The ISBN they want.
+     * @return The hold, the patron's existing hold if they already have one on the ISBN, or null if the
+     * library holds no copy of the ISBN.
+     */
+
+    public Hold placeHold(Patron patron, String ISBN) {
+        expireHolds();
+        if (read(() -> bucket(booksByISBN, ISBN).isEmpty())) {
+            return null;
+        }
+        Hold hold = holds.place(patron, ISBN);
+        // A copy that came back just before the patron joined the line is on the shelf; hand it out now
+        if (hold.getState() == Hold.State.WAITING && availability.availableCopies(ISBN) > 0) {
+            fillHolds(ISBN);
+        }
+        return hold;
+    }
+
+    /**
+     * Cancels a hold. A copy set aside for it goes to the next patron in line, or back on the shelf.
+     * 
+     * @param hold The hold to cancel.
+     * @return True if the hold was waiting or ready and is now cancelled.
+     */
+
+    public boolean cancelHold(Hold hold) {
+        if (holds.cancelWaiting(hold)) {
+            return true;
+        }
+        Book book = hold.getBook();
+        if (book == null) {
+            return false;
+        }
+        synchronized (book) {
+            if (hold.getState() != Hold.State.READY || hold.getBook() != book || book.getLibrary() != this) {
+                return false;
+            }
+            holds.release(book, Hold.State.CANCELLED);
+            book.setStatus(Status.AVAILABLE);
+            return true;
+        }
+    }
+
+    /**
+     * Gets the number of patrons waiting for a copy of an ISBN, not counting those with a copy set aside.
+     * 
+     * @param ISBN The ISBN.
+     * @return The number of waiting holds.
+     */
+
+    public int waitingHolds(String ISBN) {
+        return holds.waiting(ISBN);
+    }
+
+    /**
+     * Ends the holds whose pickup deadline has passed. Each copy goes to the next patron in line, or back on
+     * the shelf. Only the holds that are due are looked at. Placing a hold and sweeping for overdue books
+     * with an OverdueSweeper also do this.
+     * 
+     * @return The holds that expired.
+     */
+
+    public List<Hold> expireHolds() {
+        List<Hold> expired = new ArrayList<>();
+        for (Hold hold : holds.expired()) {
+            Book book = hold.getBook();
+            if (book == null) {
+                continue;
+            }
+            synchronized (book) {
+                if (book.getLibrary() == this && holds.expire(hold)) {
+                    expired.add(hold);
+                    events.publish(new LibraryEvent(LibraryEvent.Type.HOLD_EXPIRED, book, hold.getPatron()));
+                    book.setStatus(Status.AVAILABLE);
+                }
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Sets how long patrons have to pick up a copy set aside for them, and the clock pickup deadlines are
+     * measured by. The window is seven days of the system clock unless set. Deadlines are kept to the second.
+     * 
+     * @param pickupWindow The time from a copy being set aside to its hold expiring.
+     * @param clock The clock, which must not go backwards.
+     */
+
+    public void setHoldPolicy(Duration pickupWindow, Clock clock) {
+        holds.setPolicy(pickupWindow, clock);
+    }
+
+    // Checks out a copy found by its ISBN, if it is still this library's and still filed under that ISBN.
+    // The patron gets the copy under its lock, so a delete can't detach it in between and leave it on their loans.
+
+    private boolean lend(Patron patron, Book book, String ISBN) {
+        synchronized (book) {
+            if (book.getLibrary() != this || !Objects.equals(book.getISBN(), ISBN) || !book.checkOut(patron)) {
+                return false;
+            }
+            patron.addBorrowedBook(book);
+            return true;
+        }
+    }
+
+    // Tells the availability table whether a copy on an ISBN's free list is still there, when it sweeps it.
+
+    private boolean isShelved(String ISBN, int bookId) {
+        Book book = bookStore.get(bookId);
+        return book != null && book.getLibrary() == this && book.getBookStatus() == Status.AVAILABLE
+                && Objects.equals(book.getISBN(), ISBN);
+    }
+
+    // Sets copies of an ISBN on the shelf aside for waiting patrons. Only that ISBN's copies are looked at,
+    // and each is checked under its own lock, so a copy is never given to two patrons.
+
+    private void fillHolds(String ISBN) {
+        BookIds copies = read(() -> bucket(booksByISBN, ISBN));
+        for (int i = 0; i < copies.size(); i++) {
+            if (holds.waiting(ISBN) == 0 || availability.availableCopies(ISBN) <= 0) {
+                return;
+            }
+            Book book = bookStore.get(copies.get(i));
+            if (book != null) {
+                synchronized (book) {
+                    if (book.getLibrary() == this && book.getBookStatus() == Status.AVAILABLE) {
+                        offerToHolds(book);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Generates a list of overdue books in the library and marks them as overdue.
+     * 
+     * @return The books that are past their due date, earliest due first.
+     */
+
+    public List<Book> OverdueBookList() {
+        return OverdueBookList(LocalDate.now());
+    }
+
+    /**
+     * Generates a list of the books that are overdue on a given date and marks them as overdue.
+     * Only the loans already past due are looked at, not the whole catalog.
+     * 
+     * @param today The date to check due dates against.
+     * @return The books that are past their due date, earliest due first.
+     */
+
+    public List<Book> OverdueBookList(LocalDate today) {
+        return sweepOverdue(today, false);
+    }
+
+    /**
+     * Lists the books on loan that are past their due date on a given date, without marking them as overdue
+     * or telling anyone. Only the loans already past due are looked at, not the whole catalog.
+     * 
+     * @param today The date to check due dates against.
+     * @return The books that are past their due date, earliest due first.
+     */
+
+    public List<Book> findOverdueBooks(LocalDate today) {
+        List<Book> overdueBooks = new ArrayList<>();
+        for (Book book : dueDates.dueBefore(today)) {
+            synchronized (book) {
+                if (book.getLibrary() == this && book.getBookStatus().isOnLoan()) {
+                    overdueBooks.add(book);
+                }
+            }
+        }
+        return overdueBooks;
+    }
 
-        result += "BOOKS \n\n";
-        for (Book book : allBooks){
-            result += book + "\n\n"; // Append book 
+    /**
+     * Marks the checked out books that are past their due date on a given date as overdue.
+     * 
+     * @param today The date to check due dates against.
+     * @return Only the books whose status changed to overdue, earliest due first.
+     */
+
+    public List<Book> markOverdue(LocalDate today) {
+        return sweepOverdue(today, true);
+    }
+
+    private List<Book> sweepOverdue(LocalDate today, boolean newlyOverdueOnly) {
+        List<Book> overdueBooks = new ArrayList<>();
+        for (Book book : dueDates.dueBefore(today)) {
+            synchronized (book) {
+                if (book.getLibrary() != this || !book.getBookStatus().isOnLoan()) {
+                    continue; // Returned or deleted since the index was read
+                }
+                boolean newlyOverdue = book.getBookStatus() == Status.CHECKED_OUT;
+                if (newlyOverdue) {
+                    book.setStatus(Status.OVERDUE); // Update status to overdue
+                    events.publish(new LibraryEvent(LibraryEvent.Type.BOOK_OVERDUE, book, null));
+                }
+                if (newlyOverdue || !newlyOverdueOnly) {
+                    overdueBooks.add(book); // Add overdue book to the list
+                }
+            }
+        }
+        return overdueBooks;
+    }
+
+    // Index maintenance. Each bucket keeps books in ID order, so search results come back in catalog order.
+
+    private TextIndex newTitleIndex() {
+        return new TextIndex(Book::getTitleKey, bookStore::get);
+    }
+
+    private TextIndex newAuthorIndex() {
+        return new TextIndex(book -> book.getAuthor() == null ? null : book.getAuthor().getNameKey(), bookStore::get);
+    }
+
+    private void indexBook(Book book) {
+        addToIndex(booksByISBN, book.getISBN(), book);
+        booksByTitle.add(book);
+        booksByAuthor.add(book);
+        CatalogView.Editor editor = viewEditor();
+        if (editor != null) {
+            editor.add(book);
+        }
+    }
+
+    private void unindexBook(Book book) {
+        removeFromIndex(booksByISBN, book.getISBN(), book);
+        booksByTitle.remove(book);
+        booksByAuthor.remove(book);
+        CatalogView.Editor editor = viewEditor();
+        if (editor != null) {
+            editor.remove(book);
+        }
+    }
+
+    // The editor for the version the current write will publish, or null if no one has asked for a view.
+    // Callers hold the catalog write lock.
+
+    private CatalogView.Editor viewEditor() {
+        if (viewEditor == null && view != null) {
+            viewEditor = view.edit();
+        }
+        return viewEditor;
+    }
+
+    // Publishes the version the write made, if it changed anything, then releases the write lock.
+
+    private void unlockWrite(long stamp) {
+        if (viewEditor != null) {
+            view = viewEditor.publish();
+            viewEditor = null;
+        }
+        catalogLock.unlockWrite(stamp);
+    }
+
+    // Buckets never change once stored, so each change stores the bucket it makes.
+
+    private static void addToIndex(Map<String, BookIds> index, String key, Book book) {
+        if (key != null) {
+            index.put(key, index.getOrDefault(key, BookIds.EMPTY).with(book.getBookId()));
+        }
+    }
+
+    private static void removeFromIndex(Map<String, BookIds> index, String key, Book book) {
+        BookIds bucket = key == null ? null : index.get(key);
+        if (bucket != null) {
+            BookIds removed = bucket.without(book.getBookId());
+            if (removed.isEmpty()) {
+                index.remove(key);
+            } else {
+                index.put(key, removed);
+            }
+        }
+    }
+
+    private ArrayList<Book> lookup(Map<String, BookIds> index, String key) {
+        BookIds bucket = bucket(index, key);
+        ArrayList<Book> books = new ArrayList<>(bucket.size());
+        for (int i = 0; i < bucket.size(); i++) {
+            books.add(bookStore.get(bucket.get(i)));
+        }
+        return books;
+    }
+
+    private static BookIds bucket(Map<String, BookIds> index, String key) {
+        BookIds bucket = key == null ? null : index.get(key);
+        return bucket == null ? BookIds.EMPTY : bucket;
+    }
+
+    // Keyset paging: the skip lists are in ID order and safe to walk while they change, so a page starts
+    // straight after the last ID the caller saw, without a lock and without counting past earlier pages.
+
+    private static <T> ArrayList<T> page(NavigableMap<Integer, T> items, int afterId, int limit) {
+        ArrayList<T> page = new ArrayList<>(Math.max(0, Math.min(limit, 1024)));
+        if (limit <= 0) {
+            return page;
+        }
+        for (T item : items.tailMap(afterId, false).values()) {
+            page.add(item);
+            if (page.size() == limit) {
+                break;
+            }
+        }
+        return page;
+    }
+
+    // The same for a bucket of a search index, which holds IDs. A book deleted since the bucket was read
+    // is skipped.
+
+    private ArrayList<Book> page(BookIds bookIds, int afterId, int limit) {
+        ArrayList<Book> page = new ArrayList<>(Math.max(0, Math.min(limit, 1024)));
+        if (limit <= 0) {
+            return page;
+        }
+        for (int i = bookIds.indexAfter(afterId); i < bookIds.size(); i++) {
+            Book book = bookStore.get(bookIds.get(i));
+            if (book != null) {
+                page.add(book);
+                if (page.size() == limit) {
+                    break;
+                }
+            }
+        }
+        return page;
+    }
+
+    // Streams the books of a search index bucket, looking each one up as the stream reaches it.
+
+    private Stream<Book> resolve(BookIds bookIds) {
+        return bookIds.stream().mapToObj(bookStore::get).filter(Objects::nonNull);
+    }
+
+    // Streams books a page at a time, fetching the next page once the one before is used up.
+
+    private static Stream<Book> pages(IntFunction<List<Book>> nextPage) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new PageIterator(nextPage),
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+
+    // Walks books in ID order through a keyset paging function, asking for the page after the last book seen.
+
+    private static final class PageIterator implements Iterator<Book> {
+
+        private final IntFunction<List<Book>> nextPage;
+        private List<Book> page = List.of();
+        private int position;
+        private int lastId;
+        private boolean done;
+
+        PageIterator(IntFunction<List<Book>> nextPage) {
+            this.nextPage = nextPage;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (position < page.size()) {
+                return true;
+            }
+            if (done) {
+                return false;
+            }
+            page = nextPage.apply(lastId);
+            position = 0;
+            if (page.isEmpty()) {
+                done = true;
+                return false;
+            }
+            lastId = page.get(page.size() - 1).getBookId();
+            return true;
+        }
+
+        @Override
+        public Book next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return page.get(position++);
+        }
+    }
+
+    // Books point back at the library they belong to, so their status changes reach its counters and due date index.
+    // Both run under the book's lock so they can't interleave with a borrow or return of the same copy.
+
+    private void attach(Book book) {
+        synchronized (book) {
+            book.setLibrary(this);
+            if (book.getBookStatus() == Status.AVAILABLE) {
+                availability.increment(book.getISBN(), book.getBookId());
+                offerToHolds(book);
+            } else if (book.getBookStatus().isOnLoan()) {
+                dueDates.add(book, book.getDueDate());
+            }
+        }
+    }
+
+    private void detach(Book book) {
+        synchronized (book) {
+            if (book.getBookStatus() == Status.AVAILABLE) {
+                availability.decrement(book.getISBN());
+            } else if (book.getBookStatus().isOnLoan()) {
+                dueDates.remove(book, book.getDueDate());
+            } else {
+                // The patron it was set aside for waits for the next copy, and the copy leaves on the shelf
+                holds.requeue(book);
+                book.restore(Status.AVAILABLE, book.getDueDate(), null);
+            }
+            book.setLibrary(null);
+            // Only the patron who has the book needs updating
+            Patron borrower = book.getBorrower();
+            if (borrower != null) {
+                borrower.removeBorrowedBook(book);
+                book.setBorrower(null);
+            }
+        }
+    }
+
+    /**
+     * Called by a book of this library whenever its status changes, while it holds its own lock.
+     * 
+     * @param book The book whose status changed.
+     * @param previous The status before the change.
+     */
+
+    void statusChanged(Book book, Status previous) {
+        Status current = book.getBookStatus();
+        if (previous != Status.AVAILABLE && current == Status.AVAILABLE) {
+            countAvailable(book, true);
+        } else if (previous == Status.AVAILABLE && current != Status.AVAILABLE) {
+            countAvailable(book, false);
+        }
+        if (previous.isOnLoan() && !current.isOnLoan()) {
+            dueDates.remove(book, book.getDueDate());
+        } else if (!previous.isOnLoan() && current.isOnLoan()) {
+            dueDates.add(book, book.getDueDate());
+        }
+        if (previous == Status.ON_HOLD && current != Status.ON_HOLD) {
+            holds.release(book, Hold.State.CANCELLED); // Taken off the hold shelf by hand; a pickup has already claimed it
+        }
+        bookStore.update(book);
+    }
+
+    // Counts a copy on or off the shelf, under its lock. During a rebuild a copy already counted into the new
+    // table is changed there too; the recount is read before the table, so once the new table is in place
+    // a change is never made to it twice. Adding, deleting and refiling copies can't run during a rebuild,
+    // which holds the catalog read lock, so only status changes come here.
+
+    private void countAvailable(Book book, boolean available) {
+        Recount recount = this.recount;
+        AvailabilityTable table = availability;
+        count(table, book, available);
+        if (recount != null && recount.table != table && recount.counted.contains(book.getBookId())) {
+            count(recount.table, book, available);
+        }
+    }
+
+    private static void count(AvailabilityTable table, Book book, boolean available) {
+        if (available) {
+            table.increment(book.getISBN(), book.getBookId());
+        } else {
+            table.decrement(book.getISBN());
+        }
+    }
+
+    /**
+     * Called by a copy of this library when it is back on the shelf, while it holds its own lock, so it can be
+     * set aside for the next patron waiting for its ISBN.
+     * 
+     * @param book The available copy.
+     */
+
+    void offerToHolds(Book book) {
+        Hold hold = holds.nextFor(book);
+        if (hold != null) {
+            book.setStatus(Status.ON_HOLD);
+            events.publish(new LibraryEvent(LibraryEvent.Type.HOLD_READY, book, hold.getPatron()));
+        }
+    }
+
+    /**
+     * Called by a copy of this library that is set aside by a hold when a patron tries to borrow it, while it
+     * holds its own lock.
+     * 
+     * @param book The copy set aside.
+     * @param patron The patron borrowing it.
+     * @return True if the copy was set aside for that patron, whose hold is now picked up.
+     */
+
+    boolean claimHold(Book book, Patron patron) {
+        return holds.claim(book, patron);
+    }
+
+    /**
+     * Called by a book of this library when a patron borrows it, while it holds its own lock.
+     * 
+     * @param book The book borrowed.
+     * @param patron The patron who borrowed it.
+     */
+
+    void loanStarted(Book book, Patron patron) {
+        LibraryJournal journal = this.journal;
+        if (journal != null) {
+            journal.bookBorrowed(patron, book, book.getDueDate());
+        }
+        events.publish(new LibraryEvent(LibraryEvent.Type.BOOK_BORROWED, book, patron));
+    }
+
+    /**
+     * Called by a book of this library when a patron returns it, while it holds its own lock.
+     * 
+     * @param book The book returned.
+     * @param patron The patron who returned it.
+     */
+
+    void loanEnded(Book book, Patron patron) {
+        LibraryJournal journal = this.journal;
+        if (journal != null) {
+            journal.bookReturned(patron, book);
+        }
+        events.publish(new LibraryEvent(LibraryEvent.Type.BOOK_RETURNED, book, patron));
+    }
+
+    /**
+     * Publishes an event to the library's listeners without waiting for them.
+     * 
+     * @param event The event to publish.
+     */
+
+    void publish(LibraryEvent event) {
+        events.publish(event);
+    }
+
+    /**
+     * Called by a book of this library whenever its due date changes, while it holds its own lock.
+     * Only copies out on loan are in the due-date index; a copy on the shelf or set aside for a hold is not.
+     * 
+     * @param book The book whose due date changed.
+     * @param previous The due date before the change.
+     */
+
+    void dueDateChanged(Book book, LocalDate previous) {
+        if (book.getBookStatus().isOnLoan()) {
+            dueDates.remove(book, previous);
+            dueDates.add(book, book.getDueDate());
+        }
+        bookStore.update(book);
+    }
+
+    /**
+     * Called by a book of this library to change its title, author, ISBN or publisher, so the book is filed
+     * under its new details and its store records them.
+     * 
+     * @param book The book being changed.
+     * @param change Applies the new details.
+     */
+
+    void rekey(Book book, Runnable change) {
+        long stamp = catalogLock.writeLock();
+        try {
+            if (bookStore.get(book.getBookId()) != book) {
+                change.run();
+                return;
+            }
+            unindexBook(book);
+            synchronized (book) {
+                String previousISBN = book.getISBN();
+                Author previousAuthor = book.getAuthor();
+                change.run();
+                // Available copies are counted per ISBN
+                if (book.getBookStatus() == Status.AVAILABLE && !Objects.equals(previousISBN, book.getISBN())) {
+                    availability.decrement(previousISBN);
+                    availability.increment(book.getISBN(), book.getBookId());
+                    offerToHolds(book);
+                } else if (book.getBookStatus() == Status.ON_HOLD && !Objects.equals(previousISBN, book.getISBN())) {
+                    // No longer the title the patron is waiting for: they go back to the head of the line,
+                    // and the copy goes to whoever waits for its new ISBN
+                    holds.requeue(book);
+                    book.setStatus(Status.AVAILABLE);
+                }
+                if (previousAuthor != book.getAuthor()) {
+                    if (previousAuthor != null) {
+                        previousAuthor.deleteWrittenBook(book);
+                    }
+                    if (book.getAuthor() != null) {
+                        book.getAuthor().addWrittenBook(book);
+                    }
+                }
+                bookStore.update(book);
+            }
+            indexBook(book);
+        } finally {
+            unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Called by an author with books in this library to change their name, so those books are filed under
+     * the new name key and the book store records the new name.
+     * 
+     * @param author The author being changed.
+     * @param change Applies the new name and name key.
+     */
+
+    void rekey(Author author, Runnable change) {
+        long stamp = catalogLock.writeLock();
+        try {
+            CatalogView.Editor editor = viewEditor();
+            ArrayList<Book> indexed = new ArrayList<>();
+            for (int bookId : author.getWrittenBookIds(this)) {
+                Book book = bookStore.get(bookId);
+                if (book != null) {
+                    booksByAuthor.remove(book);
+                    if (editor != null) {
+                        editor.remove(book);
+                    }
+                    indexed.add(book);
+                }
+            }
+            change.run();
+            for (Book book : indexed) {
+                booksByAuthor.add(book);
+                if (editor != null) {
+                    editor.add(book);
+                }
+                bookStore.update(book);
+            }
+        } finally {
+            unlockWrite(stamp);
+        }
+    }
+
+    // Builds the word and trigram indexes of titles or author names the first time a prefix or approximate
+    // search needs them. An index that replaces one with words built gets them too, so they stay built.
+
+    private void prepareWords(boolean titles) {
+        if (!(titles ? booksByTitle : booksByAuthor).hasWords()) {
+            long stamp = catalogLock.writeLock();
+            try {
+                TextIndex index = titles ? booksByTitle : booksByAuthor;
+                if (!index.hasWords()) {
+                    index.buildWords();
+                }
+            } finally {
+                unlockWrite(stamp);
+            }
+        }
+    }
+
+    // Runs a read-only lookup without taking the lock, retrying under the read lock if a writer
+    // changed the catalog meanwhile. A torn read may throw, which is treated the same as a failed validation.
+
+    private <T> T read(Supplier<T> lookup) {
+        long stamp = catalogLock.tryOptimisticRead();
+        if (stamp != 0L) {
+            try {
+                T result = lookup.get();
+                if (catalogLock.validate(stamp)) {
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                // Fall through to the locked read
+            }
+        }
+        stamp = catalogLock.readLock();
+        try {
+            return lookup.get();
+        } finally {
+            catalogLock.unlockRead(stamp);
+        }
+    }
+
+    // Copies one of the catalog lists under the read lock, so the copy is a consistent snapshot.
+
+    private <T> ArrayList<T> copyOf(Collection<T> items) {
+        long stamp = catalogLock.readLock();
+        try {
+            return new ArrayList<>(items);
+        } finally {
+            catalogLock.unlockRead(stamp);
+        }
+    }
+
+    // Titles and author names are indexed by the keys their books and authors keep, so a query is normalized
+    // once the same way and then found with a single hash lookup.
+
+    private static String searchKey(String text) {
+        return SearchKeys.normalize(text);
+    }
+
+    /**
+     * Saves the whole library, including loans, due dates and the ID counters, to a binary snapshot file.
+     * 
+     * @param file The file to write.
+     * @throws IOException If the file can't be written.
+     */
+
+    public void saveSnapshot(Path file) throws IOException {
+        long stamp = catalogLock.readLock();
+        try {
+            LibrarySnapshot.write(this, file);
+        } finally {
+            catalogLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Loads a library from a snapshot file written by saveSnapshot.
+     * 
+     * @param file The snapshot file.
+     * @return The restored library.
+     * @throws IOException If the file can't be read or is not a library snapshot.
+     */
+
+    public static Library loadSnapshot(Path file) throws IOException {
+        return LibrarySnapshot.read(file);
+    }
+
+    /**
+     * Subscribes a listener to the library's borrow, return and overdue events.
+     * Events are delivered in order on a background thread, so a slow listener never holds up a checkout.
+     * 
+     * @param listener The listener to add.
+     */
+
+    public void addListener(LibraryListener listener) {
+        events.subscribe(listener);
+    }
+
+    /**
+     * Unsubscribes a listener from the library's events.
+     * 
+     * @param listener The listener to remove.
+     */
+
+    public void removeListener(LibraryListener listener) {
+        events.unsubscribe(listener);
+    }
+
+    /**
+     * Retrieves the event bus the library publishes to.
+     * 
+     * @return The event bus.
+     */
+
+    public EventBus getEvents() {
+        return events;
+    }
+
+    /**
+     * Attaches a write-ahead journal that records every add, delete, borrow and return from now on.
+     * Replay any existing journal with LibraryJournal.replay before attaching it.
+     * 
+     * @param journal The journal to write to, or null to stop journaling.
+     */
+
+    public void setJournal(LibraryJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Retrieves the journal attached to the library.
+     * 
+     * @return The journal, or null if none is attached.
+     */
+
+    public LibraryJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Writes a report of all books, authors and patrons in the library, one entry at a time,
+     * so large catalogs can be dumped straight to a file or stream without building the whole report in memory.
+     * The report has the same layout as toString.
+     * 
+     * @param out Where to write the report.
+     * @throws IOException If writing to out fails.
+     */
+
+    public void writeReport(Appendable out) throws IOException {
+        long stamp = catalogLock.readLock();
+        try {
+            out.append("Library [\n\n");
+
+            out.append("BOOKS \n\n");
+            for (Book book : books()){
+                out.append(book.toString()).append("\n\n"); // Append book 
+            }
+            out.append("AUTHORS \n\n");
+            for (Author author : allAuthors.values()) {
+                out.append(author.toString()).append("\n\n"); // Append author
+            }
+            out.append("PATRONS \n\n");
+            for (Patron patron : allPatrons.values()) {
+                out.append(patron.toString()).append("\n\n"); // Append patron
+            }
+            out.append("]");
+        } finally {
+            catalogLock.unlockRead(stamp);
         }
-        result += "AUTHORS \n\n";
-        for (Author author : allAuthors) {
-            result += author + "\n\n"; // Append author
+    }
+
+    /**
+     * Generates a string representation of the library.
+     * 
+     * @return A string containing information about all books, authors, and patrons in the library.
+     */
+
+    @Override
+    public String toString() {
+        // Roughly the length of one entry, so the builder rarely has to grow, but capped so a huge catalog
+        // doesn't reserve its whole report up front; past the cap the builder grows as it is written.
+        long expected = 64 + 192L * ((long) bookStore.size() + authorsById.size() + patronsById.size());
+        StringBuilder result = new StringBuilder((int) Math.min(expected, MAX_REPORT_PRESIZE));
+        try {
+            writeReport(result);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringBuilder never throws
         }
-        result += "PATRONS \n\n";
-        for (Patron patron : allPatrons) {
-            result += patron + "\n\n"; // Append patron
+        return result.toString();
+    }
+
+    // A rebuild of the availability counters in progress.
+
+    private static final class Recount {
+
+        final AvailabilityTable table;
+        final Set<Integer> counted = ConcurrentHashMap.newKeySet();
+
+        Recount(AvailabilityTable table) {
+            this.table = table;
         }
-        result += "]";
-        return result;
     }
-}
\ No newline at end of file
+}
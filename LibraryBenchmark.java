@@ -0,0 +1,316 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the cost of the Library hot paths over synthetic catalogs of different sizes.
+ *
+ * Usage: java LibraryBenchmark [sizes] [threads]
+ * where sizes is a comma separated list of catalog sizes (default 1000,10000,100000,1000000)
+ * and threads is the number of desks used by the multi-threaded runs (default: available processors).
+ * Sizes up to 10,000,000 are supported given enough heap, for example -Xmx16g.
+ * toString is skipped for catalogs larger than -Dbenchmark.toStringLimit books (default 1000000).
+ * -Dbenchmark.store=columnar or -Dbenchmark.store=offheap runs the catalog on a ColumnarBookStore or an
+ * OffHeapBookStore instead of the default heap store.
+ * -Dbenchmark.views=true turns on the library's catalog views, so exact searches read an immutable version
+ * of the catalog instead of the live indexes.
+ *
+ * Each size runs in a fresh JVM started with the same options, so code compiled for one catalog doesn't
+ * carry over to the next; -Dbenchmark.fork=false runs them all in this one instead. Every benchmark warms
+ * up before it is measured. The heap used by each catalog once loaded is reported in MB; the harness only
+ * keeps book IDs, so with a columnar or off-heap store the books themselves are not held on the heap.
+ */
+
+public class LibraryBenchmark {
+
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+    private static final long ROUND_NANOS = 200_000_000L;
+    private static final int DELETED_AUTHORS = 1000;
+    private static final int TO_STRING_LIMIT = Integer.getInteger("benchmark.toStringLimit", 1_000_000);
+    private static final String STORE = System.getProperty("benchmark.store", "heap");
+    private static final boolean VIEWS = Boolean.getBoolean("benchmark.views");
+    private static final boolean FORK = Boolean.parseBoolean(System.getProperty("benchmark.fork", "true"));
+
+    // Set in the JVMs started for each size, which leave the header to the one that started them.
+
+    private static final boolean FORKED = Boolean.getBoolean("benchmark.forked");
+
+    // Keeps results reachable so the JIT can't drop the work that produced them.
+
+    private static long sink;
+
+    /**
+     * Runs the benchmarks.
+     *
+     * @param args Optional catalog sizes and thread count.
+     */
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String sizes = args.length > 0 ? args[0] : "1000,10000,100000,1000000";
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        if (!FORKED) {
+            System.out.printf("%-28s %12s %14s%n", "Benchmark", "Books", "ns/op");
+        }
+        for (String size : sizes.split(",")) {
+            if (FORK && !FORKED) {
+                fork(size.trim(), threads);
+            } else {
+                run(Integer.parseInt(size.trim()), threads);
+            }
+        }
+        if (!FORK || FORKED) {
+            System.out.println("(sink " + sink + ")");
+        }
+    }
+
+    // Runs one size in a new JVM with the same options and class path, printing to this one's console.
+
+    private static void fork(String size, int threads) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command().orElse("java"));
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-Dbenchmark.forked=true");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(LibraryBenchmark.class.getName());
+        command.add(size);
+        command.add(Integer.toString(threads));
+        int status = new ProcessBuilder(command).inheritIO().start().waitFor();
+        if (status != 0) {
+            throw new IllegalStateException("Benchmark of " + size + " books failed with exit status " + status);
+        }
+    }
+
+    private static void run(int size, int threads) throws InterruptedException {
+        measureSingleThreaded(size);
+
+        // The catalog above is out of reach now; collect it so the next one doesn't share the heap with it
+        System.gc();
+
+        // Contended: every desk works on the same handful of copies. Spread: each desk picks from the whole catalog.
+        Catalog fresh = new Catalog(size);
+        measureConcurrent("borrow+return contended", size, threads, fresh, Math.min(8, size), false);
+        measureConcurrent("borrow+return spread", size, threads, fresh, size, false);
+        measureConcurrent("searchByTitle concurrent", size, threads, fresh, -1, false);
+        measureConcurrent("searchByTitle churn", size, threads, fresh, -1, true);
+    }
+
+    // Measures the single-threaded paths on a catalog of their own, which is dropped when this returns.
+
+    private static void measureSingleThreaded(int size) {
+        Catalog catalog = new Catalog(size);
+        Library library = catalog.library;
+        reportMemory("catalog heap", size);
+
+        measure("searchByTitle", size, () -> sink += library.searchByTitle(catalog.randomTitle()).size());
+        measure("searchByAuthor", size, () -> sink += library.searchByAuthor(catalog.randomAuthorName()).size());
+        measure("searchByISBN", size, () -> sink += library.searchByISBN(catalog.randomISBN()).size());
+        measure("borrowBook+returnBook", size, () -> {
+            Book book = catalog.randomBook();
+            Patron patron = catalog.randomPatron();
+            library.borrowBook(patron, book);
+            library.returnBook(patron, book);
+        });
+        measure("OverdueBookList", size, () -> sink += library.OverdueBookList().size());
+        if (size <= TO_STRING_LIMIT) {
+            measure("toString", size, () -> sink += library.toString().length());
+        }
+
+        // Each call removes a different author, so the catalog shrinks as this runs; it is measured last, over a fixed number of calls.
+        int deletions = Math.min(DELETED_AUTHORS, catalog.authors.size());
+        long began = System.nanoTime();
+        for (int i = 0; i < deletions; i++) {
+            library.deleteAuthor(catalog.authors.get(i));
+        }
+        long elapsed = System.nanoTime() - began;
+        report("deleteAuthor", size, (double) elapsed / deletions);
+    }
+
+    // Runs the body for a fixed time per round and reports the mean over the measured rounds.
+
+    private static void measure(String name, int size, Runnable body) {
+        double total = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            long ops = 0;
+            long start = System.nanoTime();
+            long elapsed;
+            do {
+                body.run();
+                ops++;
+                elapsed = System.nanoTime() - start;
+            } while (elapsed < ROUND_NANOS);
+            if (round >= WARMUP_ROUNDS) {
+                total += (double) elapsed / ops;
+            }
+        }
+        report(name, size, total / MEASURED_ROUNDS);
+    }
+
+    // Runs borrow and return (or searches, when hotBooks is negative) on several threads at once and reports the mean time per operation per thread.
+    // With churn, one more thread adds and deletes books the whole time, and only the desks are measured.
+
+    private static void measureConcurrent(String name, int size, int threads, Catalog catalog, int hotBooks, boolean churn) throws InterruptedException {
+        Thread writer = null;
+        CountDownLatch done = new CountDownLatch(1);
+        try {
+            if (churn) {
+                writer = new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (done.getCount() > 0) {
+                        String title = catalog.titles[random.nextInt(catalog.titles.length)];
+                        Book book = new Book(title, null, "ISBN-churn", "Publisher");
+                        catalog.library.addBook(book);
+                        catalog.library.deleteBook(book);
+                    }
+                });
+                writer.start();
+            }
+            AtomicLong ops = new AtomicLong();
+            AtomicLong busyNanos = new AtomicLong();
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> desks = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                Thread desk = new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long count = 0;
+                    long local = 0;
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long began = System.nanoTime();
+                    long elapsed;
+                    do {
+                        if (hotBooks < 0) {
+                            local += catalog.library.searchByTitle(catalog.titles[random.nextInt(catalog.titles.length)]).size();
+                        } else {
+                            Book book = catalog.library.findBookById(catalog.bookIds[random.nextInt(hotBooks)]);
+                            Patron patron = catalog.patrons.get(random.nextInt(catalog.patrons.size()));
+                            catalog.library.borrowBook(patron, book);
+                            catalog.library.returnBook(patron, book);
+                        }
+                        count++;
+                        elapsed = System.nanoTime() - began;
+                    } while (elapsed < ROUND_NANOS * MEASURED_ROUNDS);
+                    ops.addAndGet(count);
+                    busyNanos.addAndGet(elapsed);
+                    synchronized (LibraryBenchmark.class) {
+                        sink += local;
+                    }
+                });
+                desks.add(desk);
+                desk.start();
+            }
+            start.countDown();
+            for (Thread desk : desks) {
+                desk.join();
+            }
+            report(name + " x" + threads, size, (double) busyNanos.get() / ops.get());
+        } finally {
+            done.countDown();
+            if (writer != null) {
+                writer.join();
+            }
+        }
+    }
+
+    private static BookStore newBookStore() {
+        switch (STORE) {
+            case "columnar":
+                return new ColumnarBookStore();
+            case "offheap":
+                return new OffHeapBookStore();
+            default:
+                return new HeapBookStore();
+        }
+    }
+
+    private static void report(String name, int size, double nanosPerOp) {
+        System.out.printf("%-28s %12d %14.1f%n", name, size, nanosPerOp);
+    }
+
+    // Reports the heap in use after a full collection, which is mostly the catalog just loaded.
+
+    private static void reportMemory(String name, int size) {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        double megabytes = (runtime.totalMemory() - runtime.freeMemory()) / (1024.0 * 1024.0);
+        System.out.printf("%-28s %12d %11.1f MB%n", name, size, megabytes);
+    }
+
+    /**
+     * A synthetic catalog: two copies per title, ten titles per author, one patron per hundred books.
+     * Every tenth title is on loan and already past due, so OverdueBookList has work to do.
+     * Books are kept by ID and fetched from the library, so the catalog holds no references to them.
+     */
+
+    private static class Catalog {
+
+        private final Library library = new Library(newBookStore());
+        private final int[] bookIds;
+        private final List<Author> authors = new ArrayList<>();
+        private final List<Patron> patrons = new ArrayList<>();
+        private final String[] titles;
+        private final Random random = new Random(42);
+
+        Catalog(int size) {
+            int titleCount = Math.max(1, size / 2);
+            titles = new String[titleCount];
+            for (int a = 0; a < Math.max(1, titleCount / 10); a++) {
+                Author author = new Author("Author " + a, "01/01/1970");
+                authors.add(author);
+                library.addAuthor(author);
+            }
+            for (int p = 0; p < Math.max(10, size / 100); p++) {
+                Patron patron = new Patron("Patron " + p, p + " Main St", "St. John's", "NL", "A1A 1A1", "709-555-0000");
+                patrons.add(patron);
+                library.addPatron(patron);
+            }
+            bookIds = new int[size];
+            for (int i = 0; i < size; i++) {
+                int title = i % titleCount;
+                titles[title] = "Title " + title;
+                Book book = new Book(titles[title], authors.get(title % authors.size()), "ISBN-" + title, "Publisher " + (title % 50));
+                bookIds[i] = book.getBookId();
+                library.addBook(book);
+                if (title % 10 == 9 && i < titleCount) {
+                    library.borrowBook(patrons.get(i % patrons.size()), book);
+                    book.setDueDate(book.getDueDate().minusWeeks(4));
+                }
+            }
+            if (VIEWS) {
+                library.view();
+            }
+        }
+
+        String randomTitle() {
+            return titles[random.nextInt(titles.length)];
+        }
+
+        String randomAuthorName() {
+            return authors.get(random.nextInt(authors.size())).getName();
+        }
+
+        String randomISBN() {
+            return "ISBN-" + random.nextInt(titles.length);
+        }
+
+        Book randomBook() {
+            return library.findBookById(bookIds[random.nextInt(bookIds.length)]);
+        }
+
+        Patron randomPatron() {
+            return patrons.get(random.nextInt(patrons.size()));
+        }
+    }
+}
@@ -0,0 +1,523 @@
+import java.time.LocalDate;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Runs several libraries, one per branch, as a single catalog.
+ *
+ * Books are split across the shards by a hash of their ISBN, so every copy of a title is on one shard,
+ * along with its availability count. Patrons are split by a hash of their ID. Borrowing and returning go
+ * to the shard holding each book. Searches by title and author go to every shard in parallel, and the
+ * results are merged in ID order as if they came from one library. Authors are added to every shard, since
+ * their books may be on any of them.
+ *
+ * Each shard answers on its own thread pool, and the cluster only talks to a shard by handing it a task and
+ * waiting on the future it returns. That is how a shard in another process would be reached, so the pools
+ * stand in for remote shards, while the shards' work spreads across cores.
+ *
+ * A copy stays on the shard it was added to. If its ISBN is changed later, it is still found by ISBN
+ * searches, which ask every shard, but counted by availableCopies only on its old shard.
+ */
+
+public class LibraryCluster implements AutoCloseable {
+
+    private static final Comparator<Book> BY_ID = Comparator.comparingInt(Book::getBookId);
+
+    private final List<Shard> shards = new ArrayList<>();
+
+    // Finds the shard holding a book from the library the book points back at.
+
+    private final Map<Library, Shard> shardsByLibrary = new IdentityHashMap<>();
+
+    /**
+     * Constructs a cluster of new libraries, each answering on its own pool of threads.
+     *
+     * @param shardCount      The number of shards.
+     * @param threadsPerShard The number of threads each shard answers on.
+     */
+
+    public LibraryCluster(int shardCount, int threadsPerShard) {
+        this(newLibraries(shardCount), threadsPerShard);
+    }
+
+    /**
+     * Constructs a cluster over existing libraries, for example ones using a particular book store.
+     * The cluster assumes each book is on the shard its ISBN hashes to and each patron on the shard their ID
+     * hashes to, so the libraries should be empty or have been filled through a cluster of the same size.
+     *
+     * @param libraries       The libraries, one per shard.
+     * @param threadsPerShard The number of threads each shard answers on.
+     */
+
+    public LibraryCluster(List<Library> libraries, int threadsPerShard) {
+        if (libraries.isEmpty() || threadsPerShard < 1) {
+            throw new IllegalArgumentException("A cluster needs at least one shard and one thread per shard");
+        }
+        for (int i = 0; i < libraries.size(); i++) {
+            Shard shard = new Shard(libraries.get(i), Executors.newFixedThreadPool(threadsPerShard,
+                    VirtualThreads.daemonThreads("library-shard-" + i)));
+            shards.add(shard);
+            shardsByLibrary.put(shard.library, shard);
+        }
+    }
+
+    private static List<Library> newLibraries(int shardCount) {
+        List<Library> libraries = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            libraries.add(new Library());
+        }
+        return libraries;
+    }
+
+    /**
+     * Gets the number of shards.
+     *
+     * @return The number of shards.
+     */
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    /**
+     * Gets the library of one shard.
+     *
+     * @param index The index of the shard, from 0.
+     * @return The shard's library.
+     */
+
+    public Library getShard(int index) {
+        return shards.get(index).library;
+    }
+
+    /**
+     * Adds a book to the shard its ISBN belongs to.
+     *
+     * @param book The book to be added.
+     */
+
+    public void addBook(Book book) {
+        Shard shard = shardOf(book.getISBN());
+        await(shard.call(library -> {
+            library.addBook(book);
+            return null;
+        }));
+    }
+
+    /**
+     * Adds many books at once. Each shard adds its share as one batch, in parallel with the others.
+     *
+     * @param books The books to be added.
+     */
+
+    public void addBooks(Collection<Book> books) {
+        Map<Shard, List<Book>> batches = new LinkedHashMap<>();
+        for (Book book : books) {
+            batches.computeIfAbsent(shardOf(book.getISBN()), shard -> new ArrayList<>()).add(book);
+        }
+        List<CompletableFuture<Void>> added = new ArrayList<>();
+        batches.forEach((shard, batch) -> added.add(shard.call(library -> {
+            library.addBooks(batch);
+            return null;
+        })));
+        added.forEach(LibraryCluster::await);
+    }
+
+    /**
+     * Deletes a book from the shard holding it.
+     *
+     * @param bookId The ID of the book to be deleted.
+     * @return True if the book was found and deleted, false otherwise.
+     */
+
+    public boolean deleteBook(int bookId) {
+        for (Boolean deleted : fanOut(library -> library.deleteBook(bookId))) {
+            if (deleted) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds an author to every shard.
+     *
+     * @param author The author to be added.
+     */
+
+    public void addAuthor(Author author) {
+        fanOut(library -> {
+            library.addAuthor(author);
+            return null;
+        });
+    }
+
+    /**
+     * Deletes an author, and the books they wrote, from every shard.
+     *
+     * @param author The author to be deleted.
+     */
+
+    public void deleteAuthor(Author author) {
+        fanOut(library -> {
+            library.deleteAuthor(author);
+            return null;
+        });
+    }
+
+    /**
+     * Adds a patron to the shard their ID belongs to.
+     *
+     * @param patron The patron to be added.
+     */
+
+    public void addPatron(Patron patron) {
+        await(shardOf(patron.getPatronID()).call(library -> {
+            library.addPatron(patron);
+            return null;
+        }));
+    }
+
+    /**
+     * Deletes a patron from the shard holding them.
+     *
+     * @param patron The patron to be deleted.
+     */
+
+    public void deletePatron(Patron patron) {
+        await(shardOf(patron.getPatronID()).call(library -> {
+            library.deletePatron(patron);
+            return null;
+        }));
+    }
+
+    /**
+     * Finds a book by its ID, asking every shard in parallel.
+     *
+     * @param bookId The ID of the book.
+     * @return The book with the specified ID, or null if not found.
+     */
+
+    public Book findBookById(int bookId) {
+        for (Book book : fanOut(library -> library.findBookById(bookId))) {
+            if (book != null) {
+                return book;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds an author by their ID.
+     *
+     * @param authorId The ID of the author.
+     * @return The author with the specified ID, or null if not found.
+     */
+
+    public Author findAuthorById(int authorId) {
+        return await(shards.get(0).call(library -> library.findAuthorById(authorId)));
+    }
+
+    /**
+     * Finds a patron by their ID on the shard their ID belongs to.
+     *
+     * @param patronId The ID of the patron.
+     * @return The patron with the specified ID, or null if not found.
+     */
+
+    public Patron findPatronById(int patronId) {
+        return await(shardOf(patronId).call(library -> library.findPatronById(patronId)));
+    }
+
+    /**
+     * Retrieves one page of the books in the cluster, in ID order.
+     * Pass 0 for the first page, then the ID of the last book of each page to get the next one.
+     *
+     * @param afterId The ID the page starts after.
+     * @param limit The most books to return.
+     * @return Up to limit books with IDs above afterId.
+     */
+
+    public ArrayList<Book> getBooks(int afterId, int limit) {
+        return merge(fanOut(library -> library.getBooks(afterId, limit)), BY_ID, limit);
+    }
+
+    /**
+     * Searches every shard for books by title.
+     *
+     * @param title The title of the book to search for.
+     * @return The books with matching titles, in ID order.
+     */
+
+    public ArrayList<Book> searchByTitle(String title) {
+        return merge(fanOut(library -> library.searchByTitle(title)), BY_ID, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Searches every shard for books by author.
+     *
+     * @param authorName The name of the author to search for.
+     * @return The books written by the specified author, in ID order.
+     */
+
+    public ArrayList<Book> searchByAuthor(String authorName) {
+        return merge(fanOut(library -> library.searchByAuthor(authorName)), BY_ID, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Searches every shard for books by ISBN, so copies whose ISBN was changed after they were added are
+     * found as well.
+     *
+     * @param ISBN The ISBN number of the book.
+     * @return The copies with the ISBN, in ID order.
+     */
+
+    public ArrayList<Book> searchByISBN(String ISBN) {
+        return merge(fanOut(library -> library.searchByISBN(ISBN)), BY_ID, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Gets the number of copies of a book available to borrow, from the shard its ISBN belongs to.
+     *
+     * @param ISBN The ISBN of the book.
+     * @return The number of available copies.
+     */
+
+    public int availableCopies(String ISBN) {
+        return await(shardOf(ISBN).call(library -> library.availableCopies(ISBN)));
+    }
+
+    /**
+     * Lets a patron borrow several books at once. The books are grouped by the shard holding them, and the
+     * shards check them out in parallel.
+     *
+     * @param patron The patron borrowing the books.
+     * @param books The books to be borrowed.
+     * @return One result per book, in the order given.
+     */
+
+    public List<LoanResult> borrowBooks(Patron patron, Collection<Book> books) {
+        return routeLoans(books, (library, batch) -> library.borrowBooks(patron, batch));
+    }
+
+    /**
+     * Lets a patron return several books at once, each to the shard holding it.
+     *
+     * @param patron The patron returning the books.
+     * @param books The books to be returned.
+     * @return One result per book, in the order given.
+     */
+
+    public List<LoanResult> returnBooks(Patron patron, Collection<Book> books) {
+        return routeLoans(books, (library, batch) -> library.returnBooks(patron, batch));
+    }
+
+    /**
+     * Lets a patron borrow a book, using their IDs.
+     *
+     * @param patronId The ID of the patron borrowing the book.
+     * @param bookId The ID of the book to be borrowed.
+     * @return The outcome, or null if the patron or the book wasn't found.
+     */
+
+    public LoanResult borrowBook(int patronId, int bookId) {
+        Patron patron = findPatronById(patronId);
+        Book book = findBookById(bookId);
+        return patron == null || book == null ? null : borrowBooks(patron, List.of(book)).get(0);
+    }
+
+    /**
+     * Lets a patron return a book, using their IDs.
+     *
+     * @param patronId The ID of the patron returning the book.
+     * @param bookId The ID of the book to be returned.
+     * @return The outcome, or null if the patron or the book wasn't found.
+     */
+
+    public LoanResult returnBook(int patronId, int bookId) {
+        Patron patron = findPatronById(patronId);
+        Book book = findBookById(bookId);
+        return patron == null || book == null ? null : returnBooks(patron, List.of(book)).get(0);
+    }
+
+    /**
+     * Lets a patron borrow any available copy of an ISBN, from the shard its ISBN belongs to.
+     *
+     * @param patron The patron borrowing the book.
+     * @param ISBN The ISBN of the book.
+     * @return The copy borrowed, or null if no copy of the ISBN is available to the patron.
+     */
+
+    public Book borrowByISBN(Patron patron, String ISBN) {
+        return await(shardOf(ISBN).call(library -> library.borrowByISBN(patron, ISBN)));
+    }
+
+    /**
+     * Puts a patron in line for the next copy of an ISBN, on the shard its ISBN belongs to.
+     *
+     * @param patron The patron placing the hold.
+     * @param ISBN The ISBN they want.
+     * @return The hold, or null if the cluster holds no copy of the ISBN.
+     */
+
+    public Hold placeHold(Patron patron, String ISBN) {
+        return await(shardOf(ISBN).call(library -> library.placeHold(patron, ISBN)));
+    }
+
+    /**
+     * Cancels a hold on the shard it was placed with.
+     *
+     * @param hold The hold to cancel.
+     * @return True if the hold was waiting or ready and is now cancelled.
+     */
+
+    public boolean cancelHold(Hold hold) {
+        return await(shardOf(hold.getISBN()).call(library -> library.cancelHold(hold)));
+    }
+
+    /**
+     * Lists the books overdue on a given date on every shard and marks them as overdue.
+     *
+     * @param today The date to check due dates against.
+     * @return The books that are past their due date, earliest due first, with any returned while the list
+     * was being made last.
+     */
+
+    public ArrayList<Book> OverdueBookList(LocalDate today) {
+        // A copy returned after its shard listed it loses its due date, so each is read once for the sort
+        List<Map.Entry<LocalDate, Book>> byDueDate = new ArrayList<>();
+        for (List<Book> part : fanOut(library -> library.OverdueBookList(today))) {
+            for (Book book : part) {
+                byDueDate.add(new AbstractMap.SimpleImmutableEntry<>(book.getDueDate(), book));
+            }
+        }
+        byDueDate.sort(Map.Entry.comparingByKey(Comparator.nullsLast(Comparator.naturalOrder())));
+        ArrayList<Book> overdue = new ArrayList<>(byDueDate.size());
+        for (Map.Entry<LocalDate, Book> entry : byDueDate) {
+            overdue.add(entry.getValue());
+        }
+        return overdue;
+    }
+
+    /**
+     * Stops the shards' threads. The libraries themselves stay usable directly.
+     */
+
+    @Override
+    public void close() {
+        for (Shard shard : shards) {
+            shard.executor.shutdown();
+        }
+    }
+
+    // Spreads hash codes so that keys differing only in their low bits still land on different shards.
+
+    private Shard shardOf(String ISBN) {
+        return shardOf(ISBN == null ? 0 : ISBN.hashCode());
+    }
+
+    private Shard shardOf(int hash) {
+        return shards.get(Math.floorMod(hash * 0x9E3779B9, shards.size()));
+    }
+
+    // Runs a task on every shard at once and waits for all of them, returning the results in shard order.
+
+    private <T> List<T> fanOut(Function<Library, T> task) {
+        List<CompletableFuture<T>> futures = new ArrayList<>(shards.size());
+        for (Shard shard : shards) {
+            futures.add(shard.call(task));
+        }
+        List<T> results = new ArrayList<>(futures.size());
+        for (CompletableFuture<T> future : futures) {
+            results.add(await(future));
+        }
+        return results;
+    }
+
+    // Sends each shard the books it holds, in parallel, and puts the outcomes back in the order the books were
+    // given. Books not on any shard of the cluster are refused without asking one.
+
+    private List<LoanResult> routeLoans(Collection<Book> books, BiFunction<Library, List<Book>, List<LoanResult>> batch) {
+        Map<Shard, List<Book>> batches = new LinkedHashMap<>();
+        for (Book book : books) {
+            Shard shard = shardsByLibrary.get(book.getLibrary());
+            if (shard != null) {
+                batches.computeIfAbsent(shard, s -> new ArrayList<>()).add(book);
+            }
+        }
+        Map<Shard, CompletableFuture<List<LoanResult>>> pending = new LinkedHashMap<>();
+        batches.forEach((shard, shardBooks) -> pending.put(shard, shard.call(library -> batch.apply(library, shardBooks))));
+        Map<Shard, Iterator<LoanResult>> outcomes = new LinkedHashMap<>();
+        pending.forEach((shard, future) -> outcomes.put(shard, await(future).iterator()));
+        List<LoanResult> results = new ArrayList<>(books.size());
+        for (Book book : books) {
+            Shard shard = shardsByLibrary.get(book.getLibrary());
+            Iterator<LoanResult> shardOutcomes = shard == null ? null : outcomes.get(shard);
+            results.add(shardOutcomes != null ? shardOutcomes.next() : new LoanResult(book, LoanResult.Outcome.NOT_IN_LIBRARY));
+        }
+        return results;
+    }
+
+    // Each shard's results are already in order, so sorting the concatenation just merges the runs.
+
+    private static ArrayList<Book> merge(List<? extends List<Book>> parts, Comparator<Book> order, int limit) {
+        int total = 0;
+        for (List<Book> part : parts) {
+            total += part.size();
+        }
+        ArrayList<Book> merged = new ArrayList<>(total);
+        for (List<Book> part : parts) {
+            merged.addAll(part);
+        }
+        merged.sort(order);
+        if (merged.size() > limit) {
+            merged.subList(limit, merged.size()).clear();
+        }
+        return merged;
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    // A shard's library and the threads it answers on. Every call goes through call, as it would to a
+    // shard in another process.
+
+    private static final class Shard {
+
+        private final Library library;
+        private final ExecutorService executor;
+
+        Shard(Library library, ExecutorService executor) {
+            this.library = library;
+            this.executor = executor;
+        }
+
+        <T> CompletableFuture<T> call(Function<Library, T> task) {
+            return CompletableFuture.supplyAsync(() -> task.apply(library), executor);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Something that happened to a book in a library, as delivered to a LibraryListener.
+ */
+
+public class LibraryEvent {
+
+    /**
+     * The kinds of events a library publishes.
+     */
+
+    public enum Type {
+        BOOK_BORROWED, BOOK_RETURNED, BORROW_REJECTED, RETURN_REJECTED, BOOK_OVERDUE, HOLD_READY, HOLD_EXPIRED
+    }
+
+    private final Type type;
+    private final Book book;
+    private final Patron patron;
+
+    /**
+     * Constructs a LibraryEvent.
+     *
+     * @param type   The kind of event.
+     * @param book   The book the event is about.
+     * @param patron The patron involved, or null if there is none.
+     */
+
+    public LibraryEvent(Type type, Book book, Patron patron) {
+        this.type = type;
+        this.book = book;
+        this.patron = patron;
+    }
+
+    /**
+     * Gets the kind of event.
+     *
+     * @return The event type.
+     */
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Gets the book the event is about.
+     *
+     * @return The book.
+     */
+
+    public Book getBook() {
+        return book;
+    }
+
+    /**
+     * Gets the patron involved in the event.
+     *
+     * @return The patron, or null for events such as BOOK_OVERDUE that have none.
+     */
+
+    public Patron getPatron() {
+        return patron;
+    }
+
+    /**
+     * Returns a string representation of the event.
+     *
+     * @return A string containing the event type, book ID and patron ID.
+     */
+
+    public String toString() {
+        return ("EVENT [Type: " + type + " / Book ID: " + book.getBookId() + " / Patron ID: " + (patron == null ? "-" : patron.getPatronID()) + "]");
+    }
+}
@@ -0,0 +1,651 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only write-ahead journal of the changes made to a library between snapshots.
+ *
+ * Every record is written as its payload length, a CRC32 of the payload and the payload itself,
+ * which starts with a one byte record type. Appending only copies the record into a memory buffer;
+ * a background thread writes whatever has piled up and forces it to disk in one go (group commit),
+ * so checkouts never wait for an fsync. Callers that need a change to be durable call sync.
+ *
+ * If a write or fsync fails, the batch is kept in memory ahead of the records appended since, and whatever
+ * part of it reached the file is cut off before the next attempt, so no record is lost or torn. The next
+ * flush tries again. A failed background flush is reported by getFlushFailure until a flush succeeds, and
+ * sync, compact and close throw if their own flush fails.
+ *
+ * Replaying is idempotent: adds of IDs that already exist, deletes of missing IDs and loans that no
+ * longer apply are skipped. That lets compaction take a snapshot while desks keep working and then
+ * keep only the records appended after the point the snapshot started from.
+ */
+
+public class LibraryJournal implements AutoCloseable {
+
+    private static final byte ADD_BOOK = 1;
+    private static final byte ADD_AUTHOR = 2;
+    private static final byte ADD_PATRON = 3;
+    private static final byte DELETE_BOOK = 4;
+    private static final byte DELETE_AUTHOR = 5;
+    private static final byte DELETE_PATRON = 6;
+    private static final byte BORROW = 7;
+    private static final byte RETURN = 8;
+
+    private static final int HEADER_SIZE = 8;
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private final Path file;
+    private final ScheduledExecutorService flusher;
+    private final Object flushLock = new Object();
+    private final Object appendLock = new Object();
+    private FileChannel channel;
+
+    // Guarded by appendLock: records waiting to be written, and how many have been appended in total.
+    private ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+    private ByteBuffer spare = ByteBuffer.allocate(1 << 16);
+    private long appended;
+
+    // Guarded by flushLock: how many records are known to be on disk, the length of the file they fill, and
+    // whether a failed flush may have left part of a batch after that.
+    private long durable;
+    private long committed;
+    private boolean torn;
+
+    // The last background flush failure, until a flush succeeds.
+    private volatile IOException flushFailure;
+
+    /**
+     * Opens a journal for appending, creating the file if needed. A torn record left at the end of the
+     * file by a crash is cut off first.
+     *
+     * @param file             The journal file.
+     * @param flushIntervalMillis How often the buffered records are written and forced to disk. Must be positive.
+     * @throws IOException If the file can't be opened.
+     */
+
+    public LibraryJournal(Path file, long flushIntervalMillis) throws IOException {
+        if (flushIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Flush interval must be positive: " + flushIntervalMillis + " ms");
+        }
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.truncate(validLength(channel));
+        channel.position(channel.size());
+        this.committed = channel.size();
+        this.flusher = Executors.newSingleThreadScheduledExecutor(VirtualThreads.daemonThreads("journal-flusher"));
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Replays a journal file on top of a library, usually one just loaded from the latest snapshot.
+     * The library must not have a journal attached while this runs, so the replayed changes aren't logged again.
+     *
+     * @param file    The journal file. Nothing happens if it doesn't exist.
+     * @param library The library to apply the records to.
+     * @return The number of records read.
+     * @throws IOException If the file can't be read.
+     */
+
+    public static int replay(Path file, Library library) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        int records = 0;
+        IdMap<Author> authors = new IdMap<>();
+        Status[] statuses = Status.values();
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            long end = validLength(in);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            long position = 0;
+            while (position < end) {
+                header.clear();
+                readFully(in, header, position);
+                header.flip();
+                int length = header.getInt();
+                header.getInt(); // Checksum, already verified by validLength
+                ByteBuffer record = ByteBuffer.allocate(length);
+                readFully(in, record, position + HEADER_SIZE);
+                record.flip();
+                apply(record, library, authors, statuses);
+                position += HEADER_SIZE + length;
+                records++;
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Records that a book was added. A copy added while on loan is recorded as added to the shelf and then
+     * borrowed by its borrower, so replay gives it back to them, or leaves it on the shelf if they are gone.
+     *
+     * @param book The book.
+     */
+
+    public void bookAdded(Book book) {
+        Author author = book.getAuthor();
+        Status status;
+        LocalDate dueDate;
+        Patron borrower;
+        synchronized (book) {
+            status = book.getBookStatus();
+            dueDate = book.getDueDate();
+            borrower = book.getBorrower();
+        }
+        boolean onLoan = status.isOnLoan();
+        synchronized (appendLock) {
+            int start = begin(ADD_BOOK);
+            putInt(book.getBookId());
+            putString(book.getTitle());
+            putString(book.getISBN());
+            putString(book.getPublisher());
+            putByte(Status.AVAILABLE.ordinal());
+            putLong(dueDate == null || onLoan ? NO_DATE : dueDate.toEpochDay());
+            putInt(author == null ? 0 : author.getAuthorID());
+            putString(author == null ? null : author.getName());
+            putString(author == null ? null : author.getDateOfBirth());
+            end(start);
+            if (onLoan && borrower != null) {
+                start = begin(BORROW);
+                putInt(borrower.getPatronID());
+                putInt(book.getBookId());
+                putLong(dueDate == null ? NO_DATE : dueDate.toEpochDay());
+                end(start);
+            }
+        }
+    }
+
+    /**
+     * Records that an author was added.
+     *
+     * @param author The author.
+     */
+
+    public void authorAdded(Author author) {
+        synchronized (appendLock) {
+            int start = begin(ADD_AUTHOR);
+            putInt(author.getAuthorID());
+            putString(author.getName());
+            putString(author.getDateOfBirth());
+            end(start);
+        }
+    }
+
+    /**
+     * Records that a patron was added.
+     *
+     * @param patron The patron.
+     */
+
+    public void patronAdded(Patron patron) {
+        synchronized (appendLock) {
+            int start = begin(ADD_PATRON);
+            putInt(patron.getPatronID());
+            putString(patron.getName());
+            putString(patron.getAddress());
+            putString(patron.getCity());
+            putString(patron.getProvince());
+            putString(patron.getPostalCode());
+            putString(patron.getPhone());
+            end(start);
+        }
+    }
+
+    /**
+     * Records that a book was deleted.
+     *
+     * @param bookId The ID of the book.
+     */
+
+    public void bookDeleted(int bookId) {
+        appendId(DELETE_BOOK, bookId);
+    }
+
+    /**
+     * Records that an author was deleted.
+     *
+     * @param authorId The ID of the author.
+     */
+
+    public void authorDeleted(int authorId) {
+        appendId(DELETE_AUTHOR, authorId);
+    }
+
+    /**
+     * Records that a patron was deleted.
+     *
+     * @param patronId The ID of the patron.
+     */
+
+    public void patronDeleted(int patronId) {
+        appendId(DELETE_PATRON, patronId);
+    }
+
+    /**
+     * Records that a patron borrowed a book.
+     *
+     * @param patron  The patron.
+     * @param book    The book.
+     * @param dueDate The date the book is due back.
+     */
+
+    public void bookBorrowed(Patron patron, Book book, LocalDate dueDate) {
+        synchronized (appendLock) {
+            int start = begin(BORROW);
+            putInt(patron.getPatronID());
+            putInt(book.getBookId());
+            putLong(dueDate == null ? NO_DATE : dueDate.toEpochDay());
+            end(start);
+        }
+    }
+
+    /**
+     * Records that a patron returned a book.
+     *
+     * @param patron The patron.
+     * @param book   The book.
+     */
+
+    public void bookReturned(Patron patron, Book book) {
+        synchronized (appendLock) {
+            int start = begin(RETURN);
+            putInt(patron.getPatronID());
+            putInt(book.getBookId());
+            end(start);
+        }
+    }
+
+    /**
+     * Writes every record appended so far and forces it to disk before returning.
+     *
+     * @throws IOException If writing the journal fails.
+     */
+
+    public void sync() throws IOException {
+        long target;
+        synchronized (appendLock) {
+            target = appended;
+        }
+        synchronized (flushLock) {
+            if (durable < target) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Gets the error from the last background flush, if it failed and no flush has succeeded since. The
+     * records it was writing are still held and are written by the next flush.
+     *
+     * @return The error, or null if the last flush succeeded.
+     */
+
+    public IOException getFlushFailure() {
+        return flushFailure;
+    }
+
+    /**
+     * Replaces the journal with a snapshot: writes a snapshot of the library, then drops the records
+     * the snapshot already covers. Records appended while the snapshot is written are kept.
+     *
+     * @param library  The library this journal belongs to.
+     * @param snapshot The snapshot file to write.
+     * @throws IOException If the snapshot or the journal can't be written.
+     */
+
+    public void compact(Library library, Path snapshot) throws IOException {
+        long mark;
+        synchronized (flushLock) {
+            flush();
+            mark = channel.position();
+        }
+        library.saveSnapshot(snapshot);
+        synchronized (flushLock) {
+            synchronized (appendLock) {
+                flush();
+                // The new file is opened before the old one is closed, so if anything fails the journal keeps
+                // appending to the old file, which still holds every record
+                Path temp = file.resolveSibling(file.getFileName() + ".compact");
+                FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                try {
+                    long position = mark;
+                    long end = channel.size();
+                    while (position < end) {
+                        position += channel.transferTo(position, end - position, out);
+                    }
+                    out.force(true);
+                    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException | RuntimeException e) {
+                    try {
+                        out.close();
+                        Files.deleteIfExists(temp);
+                    } catch (IOException suppressed) {
+                        e.addSuppressed(suppressed);
+                    }
+                    throw e;
+                }
+                FileChannel old = channel;
+                channel = out;
+                channel.position(channel.size());
+                committed = channel.size();
+                try {
+                    old.close();
+                } catch (IOException e) {
+                    // Nothing is written to the old file any more
+                }
+            }
+        }
+    }
+
+    /**
+     * Flushes what is left and closes the journal.
+     *
+     * @throws IOException If the last flush fails.
+     */
+
+    @Override
+    public void close() throws IOException {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (flushLock) {
+            flush();
+            channel.close();
+        }
+    }
+
+    // Writing
+
+    private void flushQuietly() {
+        try {
+            synchronized (flushLock) {
+                flush();
+            }
+        } catch (IOException e) {
+            flushFailure = e; // The batch is kept for the next flush
+        }
+    }
+
+    // Swaps the buffers so appends can carry on while the batch is written. Caller holds flushLock,
+    // which is always taken before appendLock. If the write fails, the batch goes back in front of the
+    // records appended meanwhile, and the part of it already written is cut off before the next write.
+
+    private void flush() throws IOException {
+        ByteBuffer batch;
+        long count;
+        synchronized (appendLock) {
+            if (appended == durable) {
+                return;
+            }
+            batch = pending;
+            pending = spare;
+            spare = batch;
+            count = appended;
+        }
+        batch.flip();
+        try {
+            if (torn) {
+                channel.truncate(committed);
+                channel.position(committed);
+                torn = false;
+            }
+            while (batch.hasRemaining()) {
+                channel.write(batch);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            torn = true;
+            restore(batch);
+            throw e;
+        }
+        batch.clear();
+        committed = channel.position();
+        durable = count;
+        flushFailure = null;
+    }
+
+    // Puts a batch that failed to write back in front of the records appended since, so they are all written
+    // in order next time.
+
+    private void restore(ByteBuffer batch) {
+        synchronized (appendLock) {
+            batch.rewind();
+            ByteBuffer newer = pending;
+            newer.flip();
+            ByteBuffer merged = batch;
+            if (batch.capacity() - batch.limit() >= newer.remaining()) {
+                merged.position(merged.limit()).limit(merged.capacity());
+            } else {
+                merged = ByteBuffer.allocate(Math.max(batch.capacity() * 2, batch.limit() + newer.remaining()));
+                merged.put(batch);
+            }
+            merged.put(newer);
+            newer.clear();
+            pending = merged;
+            spare = newer;
+        }
+    }
+
+    private void appendId(byte type, int id) {
+        synchronized (appendLock) {
+            int start = begin(type);
+            putInt(id);
+            end(start);
+        }
+    }
+
+    // Reserves the header, which end fills in once the payload length is known. Callers hold appendLock.
+
+    private int begin(byte type) {
+        ensure(HEADER_SIZE + 1);
+        int start = pending.position();
+        pending.position(start + HEADER_SIZE);
+        pending.put(type);
+        return start;
+    }
+
+    private void end(int start) {
+        int length = pending.position() - start - HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        ByteBuffer payload = pending.duplicate();
+        payload.position(start + HEADER_SIZE).limit(start + HEADER_SIZE + length);
+        crc.update(payload);
+        pending.putInt(start, length);
+        pending.putInt(start + 4, (int) crc.getValue());
+        appended++;
+    }
+
+    private void putByte(int value) {
+        ensure(1);
+        pending.put((byte) value);
+    }
+
+    private void putInt(int value) {
+        ensure(4);
+        pending.putInt(value);
+    }
+
+    private void putLong(long value) {
+        ensure(8);
+        pending.putLong(value);
+    }
+
+    private void putString(String value) {
+        if (value == null) {
+            putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensure(4 + bytes.length);
+        pending.putInt(bytes.length);
+        pending.put(bytes);
+    }
+
+    private void ensure(int bytes) {
+        if (pending.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + bytes));
+            pending.flip();
+            larger.put(pending);
+            pending = larger;
+        }
+    }
+
+    // Reading
+
+    // Finds where the last complete record with a matching checksum ends.
+
+    private static long validLength(FileChannel in) throws IOException {
+        long size = in.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (position + HEADER_SIZE <= size) {
+            header.clear();
+            readFully(in, header, position);
+            header.flip();
+            int length = header.getInt();
+            int checksum = header.getInt();
+            if (length <= 0 || position + HEADER_SIZE + length > size) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(in, payload, position + HEADER_SIZE);
+            payload.flip();
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            position += HEADER_SIZE + length;
+        }
+        return position;
+    }
+
+    private static void readFully(FileChannel in, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = in.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Journal ended in the middle of a record");
+            }
+            position += read;
+        }
+    }
+
+    private static void apply(ByteBuffer record, Library library, IdMap<Author> authors, Status[] statuses) {
+        byte type = record.get();
+        switch (type) {
+            case ADD_BOOK: {
+                int id = record.getInt();
+                String title = getString(record);
+                String ISBN = getString(record);
+                String publisher = getString(record);
+                Status status = statuses[record.get()];
+                long dueDate = record.getLong();
+                Author author = resolveAuthor(library, authors, record.getInt(), getString(record), getString(record));
+                if (library.findBookById(id) == null) {
+                    Book book = new Book(id, title, author, ISBN, publisher);
+                    if (status.isOnLoan()) {
+                        // Loans are replayed from BORROW records; one with no borrower couldn't be returned
+                        status = Status.AVAILABLE;
+                        dueDate = NO_DATE;
+                    }
+                    book.setStatus(status);
+                    if (dueDate != NO_DATE) {
+                        book.setDueDate(LocalDate.ofEpochDay(dueDate));
+                    }
+                    Book.reserveIdsBelow(id + 1);
+                    library.addBook(book);
+                }
+                break;
+            }
+            case ADD_AUTHOR: {
+                int id = record.getInt();
+                Author author = resolveAuthor(library, authors, id, getString(record), getString(record));
+                if (library.findAuthorById(id) == null) {
+                    library.addAuthor(author);
+                }
+                break;
+            }
+            case ADD_PATRON: {
+                int id = record.getInt();
+                Patron patron = new Patron(id, getString(record), getString(record), getString(record), getString(record), getString(record), getString(record));
+                if (library.findPatronById(id) == null) {
+                    Patron.reserveIdsBelow(id + 1);
+                    library.addPatron(patron);
+                }
+                break;
+            }
+            case DELETE_BOOK:
+                library.deleteBook(record.getInt());
+                break;
+            case DELETE_AUTHOR:
+                library.deleteAuthor(record.getInt());
+                break;
+            case DELETE_PATRON:
+                library.deletePatron(record.getInt());
+                break;
+            case BORROW: {
+                Patron patron = library.findPatronById(record.getInt());
+                Book book = library.findBookById(record.getInt());
+                long dueDate = record.getLong();
+                if (patron != null && book != null && book.getBookStatus() == Status.AVAILABLE) {
+                    library.borrowBook(patron, book);
+                    if (dueDate != NO_DATE && patron.hasBook(book)) {
+                        book.setDueDate(LocalDate.ofEpochDay(dueDate));
+                    }
+                }
+                break;
+            }
+            case RETURN: {
+                Patron patron = library.findPatronById(record.getInt());
+                Book book = library.findBookById(record.getInt());
+                if (patron != null && book != null && patron.hasBook(book)) {
+                    library.returnBook(patron, book);
+                }
+                break;
+            }
+            default:
+                throw new IllegalStateException("Unknown journal record type " + type);
+        }
+    }
+
+    // Authors are shared by the books that name them, including authors never added to the library.
+
+    private static Author resolveAuthor(Library library, IdMap<Author> authors, int id, String name, String dateOfBirth) {
+        if (id == 0) {
+            return null;
+        }
+        Author author = library.findAuthorById(id);
+        if (author == null) {
+            author = authors.get(id);
+        }
+        if (author == null) {
+            author = new Author(id, name, dateOfBirth);
+            Author.reserveIdsBelow(id + 1);
+        }
+        authors.put(id, author);
+        return author;
+    }
+
+    private static String getString(ByteBuffer record) {
+        int length = record.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,8 @@
+/**
+ * Receives the events published by a library.
+ */
+
+public interface LibraryListener {
+
+    void onEvent(LibraryEvent event);
+}
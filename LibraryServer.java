@@ -0,0 +1,433 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Serves a library over HTTP with JSON responses, for kiosks and other front ends.
+ *
+ * Every request runs on its own virtual thread. At most maxConcurrent requests are handled at once;
+ * any more are answered straight away with 503 and a Retry-After header instead of queueing, so a burst
+ * can't pile up unbounded work. Each endpoint records its request count, errors, rejections and a
+ * latency histogram, served at /metrics.
+ *
+ * Endpoints:
+ *   GET    /books?after=ID&limit=N          A page of the catalog in ID order
+ *   GET    /books/ID                        One book
+ *   GET    /books/search?title=T&after=ID&limit=N, or author=A or isbn=I instead of title
+ *   POST   /books     {"title", "authorId", "isbn", "publisher"}
+ *   DELETE /books/ID
+ *   POST   /loans     {"patronId", "bookId"}  Borrow a book
+ *   POST   /returns   {"patronId", "bookId"}  Return a book
+ *   GET    /overdue?date=YYYY-MM-DD         Books overdue on a date no later than today, today by default
+ *   GET    /metrics                         Request counts and latencies per endpoint
+ */
+
+public class LibraryServer implements AutoCloseable {
+
+    private static final int DEFAULT_LIMIT = 50;
+    private static final int MAX_LIMIT = 1000;
+    private static final int MAX_BODY = 64 * 1024;
+
+    private final Library library;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final Map<String, RequestMetrics> metrics = new LinkedHashMap<>();
+
+    /**
+     * Constructs a server for a library. It doesn't accept connections until started.
+     *
+     * @param library       The library to serve.
+     * @param address       The address and port to listen on.
+     * @param maxConcurrent The most requests handled at once.
+     * @throws IOException If the address can't be bound.
+     */
+
+    public LibraryServer(Library library, InetSocketAddress address, int maxConcurrent) throws IOException {
+        this.library = library;
+        this.permits = new Semaphore(maxConcurrent);
+        this.server = HttpServer.create(address, 0);
+        this.executor = VirtualThreads.newExecutor("library-http");
+        server.setExecutor(executor);
+        route("/books", this::books);
+        route("/loans", exchange -> loan(exchange, true));
+        route("/returns", exchange -> loan(exchange, false));
+        route("/overdue", this::overdue);
+        route("/metrics", this::metrics);
+    }
+
+    /**
+     * Starts a server over the sample library on a port, 8080 by default.
+     *
+     * @param args Optional port number.
+     * @throws IOException If the port can't be bound.
+     */
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        Library library = new Library();
+        TestLibrary.loadData(library);
+        LibraryServer server = new LibraryServer(library, new InetSocketAddress(port), 256);
+        server.start();
+        System.out.println("Library server listening on port " + server.getPort());
+    }
+
+    /**
+     * Starts accepting requests.
+     */
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests, waits up to a second for those in progress, and stops their threads.
+     */
+
+    public void stop() {
+        server.stop(1);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Stops the server.
+     */
+
+    @Override
+    public void close() {
+        stop();
+    }
+
+    /**
+     * Gets the port the server listens on, useful when it was bound to port 0.
+     *
+     * @return The port.
+     */
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Gets the metrics of one endpoint.
+     *
+     * @param path The endpoint's path, such as "/loans".
+     * @return The endpoint's metrics, or null if there is no such endpoint.
+     */
+
+    public RequestMetrics getMetrics(String path) {
+        return metrics.get(path);
+    }
+
+    // Answers a request with a status and a JSON body, or no body when json is null.
+
+    private interface Endpoint {
+        Response handle(HttpExchange exchange) throws IOException;
+    }
+
+    private static final class Response {
+
+        private final int status;
+        private final String json;
+
+        private Response(int status, String json) {
+            this.status = status;
+            this.json = json;
+        }
+    }
+
+    // Registers an endpoint behind the concurrency limit and its metrics. Bad input becomes 400, anything
+    // unexpected 500, and a rejected request 503.
+
+    private void route(String path, Endpoint endpoint) {
+        RequestMetrics endpointMetrics = new RequestMetrics();
+        metrics.put(path, endpointMetrics);
+        HttpHandler handler = exchange -> {
+            long start = System.nanoTime();
+            if (!permits.tryAcquire()) {
+                endpointMetrics.reject();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                send(exchange, new Response(503, error("Too many requests, try again shortly")));
+                return;
+            }
+            Response response;
+            try {
+                response = endpoint.handle(exchange);
+            } catch (IllegalArgumentException | DateTimeParseException e) {
+                response = new Response(400, error(e.getMessage()));
+            } catch (RuntimeException e) {
+                response = new Response(500, error("Internal error"));
+            } finally {
+                permits.release();
+            }
+            try {
+                send(exchange, response);
+            } finally {
+                endpointMetrics.record(response.status, System.nanoTime() - start);
+            }
+        };
+        server.createContext(path, handler);
+    }
+
+    private Response books(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String rest = exchange.getRequestURI().getPath().substring("/books".length());
+        Map<String, String> query = query(exchange);
+        if (rest.isEmpty() || rest.equals("/")) {
+            if (method.equals("GET")) {
+                return new Response(200, books(library.getBooks(intParameter(query, "after", 0), limit(query))));
+            }
+            if (method.equals("POST")) {
+                return addBook(body(exchange));
+            }
+            return notAllowed();
+        }
+        if (rest.equals("/search")) {
+            if (!method.equals("GET")) {
+                return notAllowed();
+            }
+            int after = intParameter(query, "after", 0);
+            int limit = limit(query);
+            if (query.containsKey("title")) {
+                return new Response(200, books(library.searchByTitle(query.get("title"), after, limit)));
+            }
+            if (query.containsKey("author")) {
+                return new Response(200, books(library.searchByAuthor(query.get("author"), after, limit)));
+            }
+            if (query.containsKey("isbn")) {
+                return new Response(200, books(library.searchByISBN(query.get("isbn"), after, limit)));
+            }
+            throw new IllegalArgumentException("Search needs a title, author or isbn parameter");
+        }
+        if (!rest.startsWith("/")) {
+            return new Response(404, error("No such endpoint"));
+        }
+        int bookId = parseId(rest.substring(1), "book");
+        if (method.equals("GET")) {
+            Book book = library.findBookById(bookId);
+            return book == null ? notFound("book", bookId) : new Response(200, book(new StringBuilder(), book).toString());
+        }
+        if (method.equals("DELETE")) {
+            return library.deleteBook(bookId) ? new Response(204, null) : notFound("book", bookId);
+        }
+        return notAllowed();
+    }
+
+    private Response addBook(Map<String, String> body) {
+        String title = required(body, "title");
+        Author author = null;
+        if (body.containsKey("authorId")) {
+            int authorId = parseId(body.get("authorId"), "author");
+            author = library.findAuthorById(authorId);
+            if (author == null) {
+                return notFound("author", authorId);
+            }
+        }
+        Book book = new Book(title, author, required(body, "isbn"), body.get("publisher"));
+        library.addBook(book);
+        return new Response(201, book(new StringBuilder(), book).toString());
+    }
+
+    // Borrows or returns one book. The batch methods report why a loan failed without printing anything.
+
+    private Response loan(HttpExchange exchange, boolean borrow) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            return notAllowed();
+        }
+        Map<String, String> body = body(exchange);
+        int patronId = parseId(required(body, "patronId"), "patron");
+        int bookId = parseId(required(body, "bookId"), "book");
+        Patron patron = library.findPatronById(patronId);
+        if (patron == null) {
+            return notFound("patron", patronId);
+        }
+        Book book = library.findBookById(bookId);
+        if (book == null) {
+            return notFound("book", bookId);
+        }
+        List<LoanResult> results = borrow ? library.borrowBooks(patron, List.of(book)) : library.returnBooks(patron, List.of(book));
+        LoanResult result = results.get(0);
+        StringBuilder json = new StringBuilder("{\"outcome\":\"").append(result.getOutcome()).append("\",\"book\":");
+        book(json, book).append('}');
+        switch (result.getOutcome()) {
+            case BORROWED:
+            case RETURNED:
+                return new Response(200, json.toString());
+            case NOT_IN_LIBRARY:
+                return new Response(404, json.toString());
+            default:
+                return new Response(409, json.toString());
+        }
+    }
+
+    private Response overdue(HttpExchange exchange) {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            return notAllowed();
+        }
+        // Only lists the loans; marking them overdue and telling their borrowers is the sweeper's job
+        String date = query(exchange).get("date");
+        LocalDate today = LocalDate.now();
+        LocalDate on = date == null ? today : LocalDate.parse(date);
+        if (on.isAfter(today)) {
+            throw new IllegalArgumentException("date must not be after today: " + date);
+        }
+        return new Response(200, books(library.findOverdueBooks(on)));
+    }
+
+    private Response metrics(HttpExchange exchange) {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            return notAllowed();
+        }
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, RequestMetrics> entry : metrics.entrySet()) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            Json.appendString(json, entry.getKey());
+            json.append(':');
+            entry.getValue().appendJson(json);
+        }
+        return new Response(200, json.append('}').toString());
+    }
+
+    // JSON for books. The loan fields are read under the book's lock so they agree with each other.
+
+    private static String books(List<Book> books) {
+        StringBuilder json = new StringBuilder(64 + 160 * books.size()).append('[');
+        for (Book book : books) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            book(json, book);
+        }
+        return json.append(']').toString();
+    }
+
+    private static StringBuilder book(StringBuilder json, Book book) {
+        Status status;
+        LocalDate dueDate;
+        Patron borrower;
+        synchronized (book) {
+            status = book.getBookStatus();
+            dueDate = book.getDueDate();
+            borrower = book.getBorrower();
+        }
+        Author author = book.getAuthor();
+        json.append("{\"id\":").append(book.getBookId()).append(",\"title\":");
+        Json.appendString(json, book.getTitle());
+        json.append(",\"authorId\":").append(author == null ? "null" : String.valueOf(author.getAuthorID())).append(",\"author\":");
+        Json.appendString(json, author == null ? null : author.getName());
+        json.append(",\"isbn\":");
+        Json.appendString(json, book.getISBN());
+        json.append(",\"publisher\":");
+        Json.appendString(json, book.getPublisher());
+        json.append(",\"status\":\"").append(status).append('"');
+        json.append(",\"dueDate\":");
+        Json.appendString(json, !status.isOnLoan() || dueDate == null ? null : dueDate.toString());
+        json.append(",\"borrowerId\":").append(borrower == null ? "null" : String.valueOf(borrower.getPatronID()));
+        return json.append('}');
+    }
+
+    // Request parsing.
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), StandardCharsets.UTF_8);
+            String value = equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+            parameters.put(name, value);
+        }
+        return parameters;
+    }
+
+    private static Map<String, String> body(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] bytes = in.readNBytes(MAX_BODY + 1);
+            if (bytes.length > MAX_BODY) {
+                throw new IllegalArgumentException("Request body is larger than " + MAX_BODY + " bytes");
+            }
+            return Json.parseObject(new String(bytes, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String required(Map<String, String> values, String name) {
+        String value = values.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Missing " + name);
+        }
+        return value;
+    }
+
+    private static int parseId(String text, String kind) {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad " + kind + " ID: " + text);
+        }
+    }
+
+    private static int intParameter(Map<String, String> query, String name, int fallback) {
+        String value = query.get(name);
+        return value == null ? fallback : parseId(value, name);
+    }
+
+    private static int limit(Map<String, String> query) {
+        int limit = intParameter(query, "limit", DEFAULT_LIMIT);
+        if (limit < 0 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("limit must be between 0 and " + MAX_LIMIT);
+        }
+        return limit;
+    }
+
+    // Responses.
+
+    private static Response notFound(String kind, int id) {
+        return new Response(404, error("No " + kind + " with ID " + id));
+    }
+
+    private static Response notAllowed() {
+        return new Response(405, error("Method not allowed"));
+    }
+
+    private static String error(String message) {
+        StringBuilder json = new StringBuilder("{\"error\":");
+        Json.appendString(json, message);
+        return json.append('}').toString();
+    }
+
+    private static void send(HttpExchange exchange, Response response) throws IOException {
+        try {
+            if (response.json == null) {
+                exchange.sendResponseHeaders(response.status, -1);
+                return;
+            }
+            byte[] bytes = response.json.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(response.status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
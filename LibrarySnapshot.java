@@ -0,0 +1,206 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Saves a complete library to a compact binary file and loads it back.
+ *
+ * The file holds a header with the next book, author and patron IDs, followed by every author,
+ * patron and book. Each book record carries its status, due date and the ID of the patron who has it,
+ * so authors' written books and patrons' borrowed books are rebuilt with one ID lookup per record.
+ * A copy on loan to a patron who is no longer in the library is saved as back on the shelf.
+ */
+
+public final class LibrarySnapshot {
+
+    private static final int MAGIC = 0x4C494253; // "LIBS"
+    private static final int VERSION = 1;
+    private static final int NONE = 0;
+    private static final long NO_DATE = Long.MIN_VALUE;
+    private static final int LOAD_BATCH = 10_000;
+
+    private LibrarySnapshot() {
+    }
+
+    /**
+     * Writes a snapshot of a library. The caller must keep the catalog from changing while this runs.
+     * The snapshot is written to a temporary file first and then moved into place, so a crash never
+     * leaves a half written snapshot behind.
+     *
+     * @param library The library to save.
+     * @param file    The file to write.
+     * @throws IOException If the file can't be written.
+     */
+
+    static void write(Library library, Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            BinaryWriter out = new BinaryWriter(channel);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(Book.peekNextId());
+            out.writeInt(Author.peekNextId());
+            out.writeInt(Patron.peekNextId());
+
+            // Authors of books in the catalog are saved even if they were never added to the library themselves.
+            List<Author> authors = new ArrayList<>(library.authors());
+            IdMap<Author> listed = new IdMap<>(authors.size());
+            for (Author author : authors) {
+                listed.put(author.getAuthorID(), author);
+            }
+            IdMap<Author> unlisted = new IdMap<>();
+            for (Book book : library.books()) {
+                Author author = book.getAuthor();
+                if (author != null && listed.get(author.getAuthorID()) != author && unlisted.put(author.getAuthorID(), author) == null) {
+                    authors.add(author);
+                }
+            }
+            out.writeInt(authors.size());
+            for (Author author : authors) {
+                out.writeInt(author.getAuthorID());
+                out.writeByte(listed.get(author.getAuthorID()) == author ? 1 : 0);
+                out.writeString(author.getName());
+                out.writeString(author.getDateOfBirth());
+            }
+
+            Collection<Patron> patrons = library.patrons();
+            out.writeInt(patrons.size());
+            for (Patron patron : patrons) {
+                out.writeInt(patron.getPatronID());
+                out.writeString(patron.getName());
+                out.writeString(patron.getAddress());
+                out.writeString(patron.getCity());
+                out.writeString(patron.getProvince());
+                out.writeString(patron.getPostalCode());
+                out.writeString(patron.getPhone());
+            }
+
+            Collection<Book> books = library.books();
+            out.writeInt(books.size());
+            for (Book book : books) {
+                Status status;
+                LocalDate dueDate;
+                Patron borrower;
+                synchronized (book) {
+                    status = book.getBookStatus();
+                    dueDate = book.getDueDate();
+                    borrower = book.getBorrower();
+                }
+                if (status == Status.ON_HOLD) {
+                    status = Status.AVAILABLE; // Holds are not saved, so a copy set aside goes back on the shelf
+                }
+                if (borrower != null && library.findPatronById(borrower.getPatronID()) != borrower) {
+                    borrower = null; // Loans of deleted patrons are not kept
+                }
+                if (status.isOnLoan() && borrower == null) {
+                    // Nobody could return it after loading, so it goes back on the shelf
+                    status = Status.AVAILABLE;
+                    dueDate = null;
+                }
+                out.writeInt(book.getBookId());
+                out.writeString(book.getTitle());
+                out.writeInt(book.getAuthor() == null ? NONE : book.getAuthor().getAuthorID());
+                out.writeString(book.getISBN());
+                out.writeString(book.getPublisher());
+                out.writeByte(status.ordinal());
+                out.writeLong(dueDate == null ? NO_DATE : dueDate.toEpochDay());
+                out.writeInt(borrower == null ? NONE : borrower.getPatronID());
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads a library from a snapshot, and moves the ID counters past every ID in it.
+     *
+     * @param file The snapshot file.
+     * @return The restored library.
+     * @throws IOException If the file can't be read or is not a library snapshot.
+     */
+
+    static Library read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            BinaryReader in = new BinaryReader(channel);
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a library snapshot");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported library snapshot version " + version + " in " + file);
+            }
+            Book.reserveIdsBelow(in.readInt());
+            Author.reserveIdsBelow(in.readInt());
+            Patron.reserveIdsBelow(in.readInt());
+
+            Library library = new Library();
+            Status[] statuses = Status.values();
+
+            int authorCount = in.readInt();
+            IdMap<Author> authors = new IdMap<>(authorCount);
+            List<Author> listedAuthors = new ArrayList<>(authorCount);
+            for (int i = 0; i < authorCount; i++) {
+                int id = in.readInt();
+                boolean listed = in.readByte() == 1;
+                Author author = new Author(id, in.readString(), in.readString());
+                authors.put(id, author);
+                if (listed) {
+                    listedAuthors.add(author);
+                }
+            }
+            library.addAuthors(listedAuthors);
+
+            int patronCount = in.readInt();
+            IdMap<Patron> patrons = new IdMap<>(patronCount);
+            List<Patron> allPatrons = new ArrayList<>(patronCount);
+            for (int i = 0; i < patronCount; i++) {
+                int id = in.readInt();
+                Patron patron = new Patron(id, in.readString(), in.readString(), in.readString(), in.readString(), in.readString(), in.readString());
+                patrons.put(id, patron);
+                allPatrons.add(patron);
+            }
+            library.addPatrons(allPatrons);
+
+            // Books are added in batches and indexed in one pass at the end
+            int bookCount = in.readInt();
+            List<Book> batch = new ArrayList<>(Math.min(bookCount, LOAD_BATCH));
+            for (int i = 0; i < bookCount; i++) {
+                int id = in.readInt();
+                String title = in.readString();
+                Author author = authors.get(in.readInt());
+                Book book = new Book(id, title, author, in.readString(), in.readString());
+                Status status = statuses[in.readByte()];
+                long dueDate = in.readLong();
+                Patron borrower = patrons.get(in.readInt());
+                if (status.isOnLoan() && borrower == null) {
+                    status = Status.AVAILABLE; // A loan with no borrower couldn't be returned
+                    dueDate = NO_DATE;
+                }
+                book.setStatus(status);
+                if (dueDate != NO_DATE) {
+                    book.setDueDate(LocalDate.ofEpochDay(dueDate));
+                }
+                if (borrower != null) {
+                    book.setBorrower(borrower);
+                    borrower.addBorrowedBook(book);
+                }
+                batch.add(book);
+                if (batch.size() == LOAD_BATCH) {
+                    library.addBooksUnindexed(batch);
+                    batch.clear();
+                }
+            }
+            library.addBooksUnindexed(batch);
+            library.rebuildIndexes();
+            return library;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntConsumer;
+
+/**
+ * Runs many checkout desks against one Library at once, then checks that the library is still consistent.
+ *
+ * Usage: java LibraryStressTest [threads] [operations] [rounds]
+ * where threads is the number of desks (default: twice the available processors, at least 8), operations
+ * is the number of operations each desk runs (default 100000) and rounds is the number of cluster rounds
+ * (default 20).
+ *
+ * The desks borrow and return copies one at a time, by ISBN and in batches, search the catalog, add,
+ * rename and delete books, and now and then rebuild the availability counts while the others work.
+ * Afterwards every available count must match the copies actually on the shelf, every copy on loan must be
+ * on exactly its borrower's list and no other, and every book must be found by ID, title, author and ISBN,
+ * while deleted books must be found by none of them.
+ *
+ * Then a LibraryCluster adds and deletes authors with thousands of books each, several at a time. Every
+ * shard works on the same authors at once, so each author's bibliography is changed from several threads.
+ * After each round none of the deleted authors' books may be left on any shard.
+ *
+ * Any broken invariant is printed and the program exits with status 1.
+ */
+
+public class LibraryStressTest {
+
+    private static final int AUTHORS = 20;
+    private static final int ISBNS = 50;
+    private static final int COPIES_PER_ISBN = 8;
+    private static final int PATRONS = 100;
+    private static final String[] TITLES = {"Alpha", "Beta", "Gamma", "Delta", "Epsilon"};
+    private static final int SHARDS = 4;
+    private static final int CLUSTER_AUTHORS = 4;
+    private static final int BOOKS_PER_AUTHOR = 5000;
+
+    /**
+     * Runs the stress test.
+     *
+     * @param args Optional thread and operation counts.
+     */
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Math.max(8, 2 * Runtime.getRuntime().availableProcessors());
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        Library library = new Library();
+        List<Author> authors = new ArrayList<>();
+        for (int a = 0; a < AUTHORS; a++) {
+            Author author = new Author("Author " + a, "01/01/1970");
+            authors.add(author);
+            library.addAuthor(author);
+        }
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < ISBNS * COPIES_PER_ISBN; i++) {
+            Book book = new Book(TITLES[i % TITLES.length], authors.get(i % AUTHORS), "ISBN-" + (i % ISBNS), "Publisher");
+            books.add(book);
+            library.addBook(book);
+        }
+        List<Patron> patrons = new ArrayList<>();
+        for (int p = 0; p < PATRONS; p++) {
+            Patron patron = new Patron("Patron " + p, p + " Main St", "St. John's", "NL", "A1A 1A1", "709-555-0000");
+            patrons.add(patron);
+            library.addPatron(patron);
+        }
+
+        List<Book> deleted = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> desks = new ArrayList<>();
+        long began = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            Thread desk = new Thread(() -> work(library, books, authors, patrons, deleted, operations));
+            desks.add(desk);
+            desk.start();
+        }
+        for (Thread desk : desks) {
+            desk.join();
+        }
+        long elapsed = System.nanoTime() - began;
+
+        List<String> failures = check(library, patrons, deleted);
+        System.out.printf("%d desks x %d operations in %d ms%n", threads, operations, elapsed / 1_000_000);
+
+        began = System.nanoTime();
+        failures.addAll(stressCluster(rounds));
+        elapsed = System.nanoTime() - began;
+        System.out.printf("%d cluster rounds of %d authors x %d books in %d ms%n", rounds, CLUSTER_AUTHORS,
+                BOOKS_PER_AUTHOR, elapsed / 1_000_000);
+        if (!failures.isEmpty()) {
+            failures.forEach(System.out::println);
+            System.out.println(failures.size() + " invariant(s) broken");
+            System.exit(1);
+        }
+        System.out.println("All invariants hold");
+    }
+
+    // One desk: a random mix of loans, searches and catalog changes on a small catalog, so desks keep
+    // running into each other on the same copies.
+
+    private static void work(Library library, List<Book> books, List<Author> authors, List<Patron> patrons,
+            List<Book> deleted, int operations) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < operations; i++) {
+            Patron patron = patrons.get(random.nextInt(patrons.size()));
+            Book book = books.get(random.nextInt(books.size()));
+            int choice = random.nextInt(100);
+            if (i % 5000 == 4999) {
+                library.resetAvailability();
+            } else if (choice < 30) {
+                library.borrowBook(patron, book);
+            } else if (choice < 60) {
+                List<Book> borrowed = patron.getBorrowedBooks();
+                library.returnBook(patron, borrowed.isEmpty() ? book : borrowed.get(random.nextInt(borrowed.size())));
+            } else if (choice < 70) {
+                library.borrowByISBN(patron, book.getISBN());
+            } else if (choice < 75) {
+                library.borrowBooks(patron, List.of(book, books.get(random.nextInt(books.size()))));
+            } else if (choice < 80) {
+                library.returnBooks(patron, patron.getBorrowedBooks());
+            } else if (choice < 90) {
+                library.searchByTitle(TITLES[random.nextInt(TITLES.length)]);
+                library.searchByISBN(book.getISBN());
+                library.availableCopies(book.getISBN());
+            } else if (choice < 95) {
+                book.setTitle(TITLES[random.nextInt(TITLES.length)]);
+            } else {
+                Book extra = new Book("Extra", authors.get(random.nextInt(authors.size())), "ISBN-extra", "Publisher");
+                library.addBook(extra);
+                library.deleteBook(extra);
+                deleted.add(extra);
+            }
+        }
+    }
+
+    // Each round adds several authors' books to the cluster in parallel, then deletes the authors in
+    // parallel, and checks that no book of theirs is left.
+
+    private static List<String> stressCluster(int rounds) throws InterruptedException {
+        List<String> failures = new ArrayList<>();
+        try (LibraryCluster cluster = new LibraryCluster(SHARDS, 2)) {
+            for (int round = 0; round < rounds; round++) {
+                List<Author> authors = new ArrayList<>();
+                List<List<Book>> bibliographies = new ArrayList<>();
+                for (int a = 0; a < CLUSTER_AUTHORS; a++) {
+                    Author author = new Author("Cluster author " + round + "-" + a, "01/01/1970");
+                    List<Book> books = new ArrayList<>();
+                    for (int i = 0; i < BOOKS_PER_AUTHOR; i++) {
+                        books.add(new Book("Cluster title " + i, author, "ISBN-" + round + "-" + a + "-" + i, "Publisher"));
+                    }
+                    cluster.addAuthor(author);
+                    authors.add(author);
+                    bibliographies.add(books);
+                }
+                List<String> errors = Collections.synchronizedList(new ArrayList<>());
+                runAll(authors.size(), a -> cluster.addBooks(bibliographies.get(a)), errors);
+                runAll(authors.size(), a -> cluster.deleteAuthor(authors.get(a)), errors);
+                failures.addAll(errors);
+                for (int a = 0; a < authors.size(); a++) {
+                    Author author = authors.get(a);
+                    int left = 0;
+                    for (Book book : bibliographies.get(a)) {
+                        if (book.getLibrary() != null || cluster.findBookById(book.getBookId()) != null) {
+                            left++;
+                        }
+                    }
+                    if (left > 0 || !cluster.searchByAuthor(author.getName()).isEmpty() || !author.getWrittenBooks().isEmpty()) {
+                        failures.add("Round " + round + ": " + left + " of " + author.getName() + "'s books were not deleted");
+                    }
+                }
+            }
+        }
+        return failures;
+    }
+
+    // Runs a task for each index on its own thread, all at once, recording anything they throw.
+
+    private static void runAll(int count, IntConsumer task, List<String> errors) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int index = i;
+            Thread thread = new Thread(() -> {
+                try {
+                    task.accept(index);
+                } catch (RuntimeException e) {
+                    errors.add("Task " + index + " failed: " + e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Checks that a library's counts, loans and indexes agree with its books.
+     *
+     * @param library The library, with no other thread using it.
+     * @param patrons The library's patrons.
+     * @param deleted Books that were added to the library and deleted again.
+     * @return A description of each broken invariant, or an empty list if all hold.
+     */
+
+    static List<String> check(Library library, List<Patron> patrons, List<Book> deleted) {
+        List<String> failures = new ArrayList<>();
+        List<Book> books = library.getAllBooks();
+
+        // Available counts match the copies actually on the shelf
+        Map<String, Integer> onShelf = new HashMap<>();
+        for (Book book : books) {
+            onShelf.merge(book.getISBN(), book.getBookStatus() == Status.AVAILABLE ? 1 : 0, Integer::sum);
+        }
+        onShelf.forEach((ISBN, count) -> {
+            if (library.availableCopies(ISBN) != count) {
+                failures.add("ISBN " + ISBN + ": " + library.availableCopies(ISBN) + " counted available, " + count + " on the shelf");
+            }
+        });
+
+        // Every copy on loan is on its borrower's list, and on no other
+        Map<Book, Patron> lists = new IdentityHashMap<>();
+        for (Patron patron : patrons) {
+            for (Book book : patron.getBorrowedBooks()) {
+                Patron other = lists.put(book, patron);
+                if (other != null) {
+                    failures.add(book + " is on the lists of patrons " + other.getPatronID() + " and " + patron.getPatronID());
+                }
+                if (!book.getBookStatus().isOnLoan() || book.getBorrower() != patron) {
+                    failures.add(book + " is on the list of patron " + patron.getPatronID() + " but not on loan to them");
+                }
+            }
+        }
+        for (Book book : books) {
+            if (book.getBookStatus().isOnLoan() != (book.getBorrower() != null)) {
+                failures.add(book + " has status " + book.getBookStatus() + " and borrower " + book.getBorrower());
+            } else if (book.getBorrower() != null && lists.get(book) != book.getBorrower()) {
+                failures.add(book + " is on loan but not on its borrower's list");
+            }
+        }
+
+        // Every book is found under its ID, title, author and ISBN
+        for (Book book : books) {
+            if (library.findBookById(book.getBookId()) != book) {
+                failures.add(book + " is not found by ID");
+            }
+            if (!containsSame(library.searchByTitle(book.getTitle()), book)) {
+                failures.add(book + " is not found by title");
+            }
+            if (book.getAuthor() != null && !containsSame(library.searchByAuthor(book.getAuthor().getName()), book)) {
+                failures.add(book + " is not found by author");
+            }
+            if (!containsSame(library.searchByISBN(book.getISBN()), book)) {
+                failures.add(book + " is not found by ISBN");
+            }
+        }
+        for (String title : TITLES) {
+            for (Book book : library.searchByTitle(title)) {
+                if (!book.getTitle().equals(title)) {
+                    failures.add(book + " is still filed under the title " + title);
+                }
+            }
+        }
+
+        // Deleted books are gone from every index
+        Set<Book> live = Collections.newSetFromMap(new IdentityHashMap<>());
+        live.addAll(books);
+        for (Book book : deleted) {
+            if (live.contains(book) || library.findBookById(book.getBookId()) != null
+                    || containsSame(library.searchByISBN(book.getISBN()), book)
+                    || containsSame(library.searchByTitle(book.getTitle()), book)) {
+                failures.add(book + " was deleted but is still in the library");
+            }
+        }
+        return failures;
+    }
+
+    private static boolean containsSame(List<Book> books, Book book) {
+        for (Book candidate : books) {
+            if (candidate == book) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * The outcome of borrowing or returning one book as part of a batch.
+ */
+
+public class LoanResult {
+
+    /**
+     * What happened to the book.
+     */
+
+    public enum Outcome {
+        BORROWED, RETURNED, UNAVAILABLE, NOT_BORROWED_BY_PATRON, NOT_IN_LIBRARY
+    }
+
+    private final Book book;
+    private final Outcome outcome;
+
+    /**
+     * Constructs a LoanResult.
+     *
+     * @param book    The book the result is for.
+     * @param outcome What happened to the book.
+     */
+
+    public LoanResult(Book book, Outcome outcome) {
+        this.book = book;
+        this.outcome = outcome;
+    }
+
+    /**
+     * Gets the book the result is for.
+     *
+     * @return The book.
+     */
+
+    public Book getBook() {
+        return book;
+    }
+
+    /**
+     * Gets what happened to the book.
+     *
+     * @return The outcome.
+     */
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * Checks whether the book was borrowed or returned.
+     *
+     * @return True if the operation succeeded for this book.
+     */
+
+    public boolean isSuccess() {
+        return outcome == Outcome.BORROWED || outcome == Outcome.RETURNED;
+    }
+
+    /**
+     * Returns a string representation of the result.
+     *
+     * @return A string containing the book ID and the outcome.
+     */
+
+    public String toString() {
+        return ("LOAN RESULT [Book ID: " + book.getBookId() + " / Outcome: " + outcome + "]");
+    }
+}
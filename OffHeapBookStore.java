@@ -0,0 +1,732 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiFunction;
+
+/**
+ * Keeps books outside the Java heap, as fixed-width records in direct or memory-mapped buffers, so a very
+ * large catalog adds almost nothing for the garbage collector to trace.
+ *
+ * Each record holds a book's ID, status, due date and references into a string arena for its title, ISBN
+ * and publisher. It also references entries for its author and its borrower, which record their IDs and
+ * details. Books are made from their records when asked for, like in ColumnarBookStore, and written back
+ * whenever their status, loan or details change. The store keeps only a weak reference to each.
+ *
+ * A store opened on a file keeps its records in that file and in a sibling ".strings" file, mapped into
+ * memory, so it survives restarts: a Library constructed on a reopened store indexes the books it finds
+ * and registers their authors and borrowers. Authors without books and patrons without loans are not in
+ * the file; keep using snapshots for those. Changes reach the file through the operating system's page
+ * cache, so they survive the process crashing but not the machine; call close to force them to disk.
+ *
+ * The arena only grows. A changed title or ISBN is appended again, and entries are appended again when
+ * an author's or borrower's details change, leaving the old copy behind. Publishers are shared per run.
+ */
+
+public class OffHeapBookStore implements BookStore, Closeable {
+
+    private static final int MAGIC = 0x4C494252; // "LIBR"
+    private static final int VERSION = 1;
+
+    // Header at the start of the records file
+    private static final int HEADER_SIZE = 64;
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 4;
+    private static final int HEADER_ROWS = 8;
+    private static final int HEADER_ARENA_END = 16;
+
+    // Record layout, RECORD_SIZE bytes per book
+    private static final int RECORD_SIZE = 64;
+    private static final int ID = 0;         // int, 0 for a free row
+    private static final int STATUS = 4;     // byte, Status ordinal
+    private static final int DUE_DAY = 8;    // int epoch day, or NO_DATE
+    private static final int TITLE = 16;     // long arena references from here on, or NONE
+    private static final int ISBN = 24;
+    private static final int PUBLISHER = 32;
+    private static final int AUTHOR = 40;
+    private static final int BORROWER = 48;
+
+    private static final int ROW_BITS = 14;
+    private static final int ROWS_PER_CHUNK = 1 << ROW_BITS;
+    private static final int ROW_MASK = ROWS_PER_CHUNK - 1;
+    private static final int ARENA_CHUNK_SIZE = 1 << 20;
+    private static final int STRIPES = 64;
+    private static final long NONE = -1L;
+    private static final int NO_DATE = Integer.MIN_VALUE;
+    private static final Status[] STATUSES = Status.values();
+
+    private Library library;
+
+    private final FileChannel recordsChannel;
+    private final FileChannel stringsChannel;
+    private final ByteBuffer header;
+    private final Region records;
+    private final Region strings;
+    private long arenaEnd;
+
+    // Row of each book ID, and the IDs in order for paging. Guarded by lock, like the views directory.
+
+    private final RowIndex rows = new RowIndex();
+    private final StampedLock lock = new StampedLock();
+
+    // Records are read and written under the stripe of their row, which is also where their views are kept.
+
+    private final Object[] stripes = new Object[STRIPES];
+    private volatile View[][] views = new View[0][];
+
+    // Views that were collected, so their references can be dropped too.
+
+    private final ReferenceQueue<Book> collected = new ReferenceQueue<>();
+
+    // Authors and patrons by ID, with the entry last written for each, so every book of an author shares one
+    // Author. They are held weakly: one that neither the library nor a book in memory uses any more is
+    // dropped, and read back from its entry if a record needs it again.
+
+    private final ConcurrentHashMap<Integer, Owner> authors = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Owner> patrons = new ConcurrentHashMap<>();
+    private final ReferenceQueue<Object> collectedOwners = new ReferenceQueue<>();
+    private final ConcurrentHashMap<String, Long> publishers = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs an empty store in direct buffers, which lasts as long as the process.
+     */
+
+    public OffHeapBookStore() {
+        this(null, null, ByteBuffer.allocateDirect(HEADER_SIZE));
+    }
+
+    private OffHeapBookStore(FileChannel recordsChannel, FileChannel stringsChannel, ByteBuffer header) {
+        this.recordsChannel = recordsChannel;
+        this.stringsChannel = stringsChannel;
+        this.header = header;
+        this.records = new Region(recordsChannel, HEADER_SIZE, ROWS_PER_CHUNK * RECORD_SIZE);
+        this.strings = new Region(stringsChannel, 0, ARENA_CHUNK_SIZE);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    /**
+     * Opens a store kept in a file, creating the file if it doesn't exist. The store's strings are kept in
+     * a second file next to it, named after it with ".strings" added.
+     *
+     * @param file The records file.
+     * @return The store, holding any books saved in the file before.
+     * @throws IOException If the files can't be opened or are not a book store.
+     */
+
+    public static OffHeapBookStore open(Path file) throws IOException {
+        FileChannel recordsChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel stringsChannel = null;
+        try {
+            stringsChannel = FileChannel.open(file.resolveSibling(file.getFileName() + ".strings"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            boolean created = recordsChannel.size() == 0;
+            MappedByteBuffer header = recordsChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            if (created) {
+                header.putInt(HEADER_MAGIC, MAGIC);
+                header.putInt(HEADER_VERSION, VERSION);
+            } else if (header.getInt(HEADER_MAGIC) != MAGIC) {
+                throw new IOException(file + " is not a book store");
+            } else if (header.getInt(HEADER_VERSION) != VERSION) {
+                throw new IOException("Unsupported book store version " + header.getInt(HEADER_VERSION) + " in " + file);
+            }
+            OffHeapBookStore store = new OffHeapBookStore(recordsChannel, stringsChannel, header);
+            store.load();
+            return store;
+        } catch (IOException | RuntimeException e) {
+            recordsChannel.close();
+            if (stringsChannel != null) {
+                stringsChannel.close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Remembers the library, so books made from records belong to it.
+     *
+     * @param library The library the store holds books for.
+     */
+
+    @Override
+    public void bind(Library library) {
+        this.library = library;
+    }
+
+    /**
+     * Writes a book to a free record and keeps the book itself as the record's view.
+     *
+     * @param book The book to add.
+     */
+
+    @Override
+    public void add(Book book) {
+        int id = book.getBookId();
+        long stamp = lock.writeLock();
+        try {
+            dropCollected();
+            int row = rows.find(id);
+            boolean added = row < 0;
+            if (added) {
+                row = rows.insert(id);
+                if ((row >>> ROW_BITS) == views.length) {
+                    View[][] grown = Arrays.copyOf(views, views.length + 1);
+                    grown[views.length] = new View[ROWS_PER_CHUNK];
+                    views = grown;
+                }
+            }
+            synchronized (stripes[row & (STRIPES - 1)]) {
+                write(row, book, NONE, NONE, NONE);
+                views[row >>> ROW_BITS][row & ROW_MASK] = new View(book, row, collected);
+            }
+            if (added) {
+                header.putInt(HEADER_ROWS, rows.rowCount());
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Frees a book's record for the next book added.
+     *
+     * @param book The book to remove.
+     */
+
+    @Override
+    public void remove(Book book) {
+        long stamp = lock.writeLock();
+        try {
+            dropCollected();
+            int row = rows.remove(book.getBookId());
+            if (row < 0) {
+                return;
+            }
+            synchronized (stripes[row & (STRIPES - 1)]) {
+                records.chunk(row >>> ROW_BITS).putInt(offset(row) + ID, 0);
+                views[row >>> ROW_BITS][row & ROW_MASK] = null;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Gets the book with an ID, making it from its record if it isn't in memory.
+     *
+     * @param bookId The ID of the book.
+     * @return The book, or null if the store doesn't hold one with that ID. A book deleted and added again
+     *         while this runs may also read as null; the library's own lock validation retries that case.
+     */
+
+    @Override
+    public Book get(int bookId) {
+        int row = rows.find(bookId, lock);
+        return row < 0 ? null : view(bookId, row);
+    }
+
+    /**
+     * Gets one page of books in ID order, making each from its record if needed.
+     *
+     * @param afterId The ID the page starts after.
+     * @param limit   The most books to return.
+     * @return Up to limit books with IDs above afterId.
+     */
+
+    @Override
+    public ArrayList<Book> page(int afterId, int limit) {
+        ArrayList<Book> page = new ArrayList<>(Math.max(0, Math.min(limit, 1024)));
+        if (limit <= 0) {
+            return page;
+        }
+        long stamp = lock.readLock();
+        try {
+            rows.forEachAfter(afterId, id -> {
+                Book book = view(id, rows.find(id));
+                if (book != null) {
+                    page.add(book);
+                }
+                return page.size() < limit;
+            });
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return page;
+    }
+
+    /**
+     * Writes a book's current state back to its record. Strings and entries that haven't changed are kept.
+     *
+     * @param book The changed book.
+     */
+
+    @Override
+    public void update(Book book) {
+        int id = book.getBookId();
+        int row = rows.find(id, lock);
+        if (row < 0) {
+            return;
+        }
+        synchronized (stripes[row & (STRIPES - 1)]) {
+            ByteBuffer chunk = records.chunk(row >>> ROW_BITS);
+            int at = offset(row);
+            if (chunk.getInt(at + ID) == id) {
+                write(row, book, chunk.getLong(at + TITLE), chunk.getLong(at + ISBN), chunk.getLong(at + PUBLISHER));
+            }
+        }
+    }
+
+    /**
+     * Gets the number of books in the store.
+     *
+     * @return The number of books.
+     */
+
+    @Override
+    public int size() {
+        return rows.size();
+    }
+
+    /**
+     * Forces a file backed store's changes to disk and closes its files. The store can't be used afterwards.
+     * Does nothing for a store in direct buffers.
+     *
+     * @throws IOException If the files can't be written.
+     */
+
+    @Override
+    public void close() throws IOException {
+        long stamp = lock.writeLock();
+        try {
+            if (recordsChannel == null) {
+                return;
+            }
+            records.force();
+            strings.force();
+            ((MappedByteBuffer) header).force();
+            recordsChannel.close();
+            stringsChannel.close();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Reads the records of a reopened file into the row index. Free records keep their rows for reuse.
+
+    private void load() {
+        arenaEnd = header.getLong(HEADER_ARENA_END);
+        int rowCount = header.getInt(HEADER_ROWS);
+        int highestId = 0;
+        views = new View[(rowCount + ROWS_PER_CHUNK - 1) >>> ROW_BITS][];
+        for (int chunk = 0; chunk < views.length; chunk++) {
+            views[chunk] = new View[ROWS_PER_CHUNK];
+        }
+        for (int row = 0; row < rowCount; row++) {
+            int id = records.chunk(row >>> ROW_BITS).getInt(offset(row) + ID);
+            if (id != 0) {
+                rows.insertAt(id, row);
+                highestId = Math.max(highestId, id);
+            } else {
+                rows.free(row);
+            }
+        }
+        Book.reserveIdsBelow(highestId + 1);
+    }
+
+    // Returns the record's book if it is still in memory, or makes a new one. The stripe lock makes sure
+    // only one book is made per record, and that the record still holds the ID found for it.
+
+    private Book view(int id, int row) {
+        synchronized (stripes[row & (STRIPES - 1)]) {
+            ByteBuffer chunk = records.chunk(row >>> ROW_BITS);
+            int at = offset(row);
+            if (chunk.getInt(at + ID) != id) {
+                return null;
+            }
+            View[] chunkViews = views[row >>> ROW_BITS];
+            View reference = chunkViews[row & ROW_MASK];
+            Book book = reference == null ? null : reference.get();
+            if (book == null) {
+                int dueDay = chunk.getInt(at + DUE_DAY);
+                book = new Book(id, readString(chunk.getLong(at + TITLE)), author(chunk.getLong(at + AUTHOR)),
+                        readString(chunk.getLong(at + ISBN)), readString(chunk.getLong(at + PUBLISHER)));
+                book.restore(STATUSES[chunk.get(at + STATUS)], dueDay == NO_DATE ? null : LocalDate.ofEpochDay(dueDay), patron(chunk.getLong(at + BORROWER)));
+                book.setLibrary(library);
+                chunkViews[row & ROW_MASK] = new View(book, row, collected);
+            }
+            return book;
+        }
+    }
+
+    // Writes a whole record. The references passed in are the record's current strings, kept if still equal.
+    // Callers hold the row's stripe.
+
+    private void write(int row, Book book, long title, long isbn, long publisher) {
+        ByteBuffer chunk = records.chunk(row >>> ROW_BITS);
+        int at = offset(row);
+        LocalDate dueDate = book.getDueDate();
+        chunk.putLong(at + TITLE, sameString(title, book.getTitle()) ? title : appendString(book.getTitle()));
+        chunk.putLong(at + ISBN, sameString(isbn, book.getISBN()) ? isbn : appendString(book.getISBN()));
+        chunk.putLong(at + PUBLISHER, sameString(publisher, book.getPublisher()) ? publisher : publisher(book.getPublisher()));
+        chunk.putLong(at + AUTHOR, entry(book.getAuthor()));
+        chunk.putLong(at + BORROWER, entry(book.getBorrower()));
+        chunk.put(at + STATUS, (byte) book.getBookStatus().ordinal());
+        chunk.putInt(at + DUE_DAY, dueDate == null ? NO_DATE : (int) dueDate.toEpochDay());
+        chunk.putInt(at + ID, book.getBookId());
+    }
+
+    private static int offset(int row) {
+        return (row & ROW_MASK) * RECORD_SIZE;
+    }
+
+    // Clears the references of collected views out of their rows, and drops collected authors and patrons.
+    // Called by add and remove, under the write lock.
+
+    private void dropCollected() {
+        for (Reference<? extends Book> reference; (reference = collected.poll()) != null; ) {
+            View view = (View) reference;
+            synchronized (stripes[view.row & (STRIPES - 1)]) {
+                View[] chunkViews = views[view.row >>> ROW_BITS];
+                if (chunkViews[view.row & ROW_MASK] == view) {
+                    chunkViews[view.row & ROW_MASK] = null;
+                }
+            }
+        }
+        for (Reference<?> reference; (reference = collectedOwners.poll()) != null; ) {
+            Owner owner = (Owner) reference;
+            owner.byId.remove(owner.id, owner);
+        }
+    }
+
+    // Author and patron entries: the ID followed by the details as strings. An object whose details still
+    // match its last entry reuses it.
+
+    private long entry(Author author) {
+        if (author == null) {
+            return NONE;
+        }
+        return entry(authors, author, author.getAuthorID(), author.getName(), author.getDateOfBirth());
+    }
+
+    private long entry(Patron patron) {
+        if (patron == null) {
+            return NONE;
+        }
+        return entry(patrons, patron, patron.getPatronID(), patron.getName(), patron.getAddress(), patron.getCity(), patron.getProvince(), patron.getPostalCode(), patron.getPhone());
+    }
+
+    // The object written becomes the one books made from records get, keeping the entry if its details match.
+
+    private long entry(ConcurrentHashMap<Integer, Owner> byId, Object object, int id, String... details) {
+        Owner owner = byId.get(id);
+        if (owner == null || owner.get() != object) {
+            owner = new Owner(object, byId, id, owner == null ? null : owner.entry, collectedOwners);
+            byId.put(id, owner);
+        }
+        Entry entry = owner.entry;
+        if (entry == null || !Arrays.equals(entry.details, details)) {
+            entry = new Entry(appendEntry(id, details), details);
+            owner.entry = entry;
+        }
+        return entry.reference;
+    }
+
+    private Author author(long reference) {
+        if (reference == NONE) {
+            return null;
+        }
+        return (Author) owner(authors, reference, 2, (id, details) -> {
+            Author.reserveIdsBelow(id + 1);
+            return new Author(id, details[0], details[1]);
+        });
+    }
+
+    private Patron patron(long reference) {
+        if (reference == NONE) {
+            return null;
+        }
+        return (Patron) owner(patrons, reference, 6, (id, details) -> {
+            Patron.reserveIdsBelow(id + 1);
+            return new Patron(id, details[0], details[1], details[2], details[3], details[4], details[5]);
+        });
+    }
+
+    // Returns the live object with the entry's ID, or makes one from the entry if it was never read or was collected.
+
+    private Object owner(ConcurrentHashMap<Integer, Owner> byId, long reference, int detailCount, BiFunction<Integer, String[], Object> make) {
+        int id = readId(reference);
+        Owner owner = byId.get(id);
+        Object object = owner == null ? null : owner.get();
+        if (object != null) {
+            return object;
+        }
+        Object[] found = new Object[1];
+        byId.compute(id, (key, current) -> {
+            found[0] = current == null ? null : current.get();
+            if (found[0] != null) {
+                return current;
+            }
+            String[] details = readDetails(reference, detailCount);
+            found[0] = make.apply(key, details);
+            return new Owner(found[0], byId, key, new Entry(reference, details), collectedOwners);
+        });
+        return found[0];
+    }
+
+    private long publisher(String publisher) {
+        return publisher == null ? NONE : publishers.computeIfAbsent(publisher, this::appendString);
+    }
+
+    // The string arena. Each string is its UTF-8 length followed by its bytes. Anything that fits in a chunk
+    // is kept within one, so reads stay on a single buffer; only longer strings run on into the next chunks.
+    // Appends are serialised on the arena, and a reference is only published after its bytes are written.
+
+    private long appendString(String value) {
+        if (value == null) {
+            return NONE;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        synchronized (strings) {
+            long reference = reserve(4 + bytes.length);
+            putInt(reference, bytes.length);
+            putBytes(reference + 4, bytes);
+            header.putLong(HEADER_ARENA_END, arenaEnd);
+            return reference;
+        }
+    }
+
+    private long appendEntry(int id, String... details) {
+        byte[][] encoded = new byte[details.length][];
+        long length = 4;
+        for (int i = 0; i < details.length; i++) {
+            encoded[i] = details[i] == null ? null : details[i].getBytes(StandardCharsets.UTF_8);
+            length += 4 + (encoded[i] == null ? 0 : encoded[i].length);
+        }
+        synchronized (strings) {
+            long reference = reserve(length);
+            long at = reference;
+            putInt(at, id);
+            at += 4;
+            for (byte[] bytes : encoded) {
+                putInt(at, bytes == null ? -1 : bytes.length);
+                at += 4;
+                if (bytes != null) {
+                    putBytes(at, bytes);
+                    at += bytes.length;
+                }
+            }
+            header.putLong(HEADER_ARENA_END, arenaEnd);
+            return reference;
+        }
+    }
+
+    // Moves to the next chunk if an item that fits in a chunk doesn't fit in the rest of this one.
+    // Callers hold the arena lock.
+
+    private long reserve(long length) {
+        long start = arenaEnd;
+        if (length <= ARENA_CHUNK_SIZE && start / ARENA_CHUNK_SIZE != (start + length - 1) / ARENA_CHUNK_SIZE) {
+            start = (start / ARENA_CHUNK_SIZE + 1) * ARENA_CHUNK_SIZE;
+        }
+        arenaEnd = start + length;
+        return start;
+    }
+
+    private String readString(long reference) {
+        if (reference == NONE) {
+            return null;
+        }
+        byte[] bytes = new byte[getInt(reference)];
+        getBytes(reference + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int readId(long reference) {
+        return getInt(reference);
+    }
+
+    private String[] readDetails(long reference, int count) {
+        long at = reference + 4;
+        String[] details = new String[count];
+        for (int i = 0; i < count; i++) {
+            int length = getInt(at);
+            at += 4;
+            if (length >= 0) {
+                byte[] bytes = new byte[length];
+                getBytes(at, bytes);
+                details[i] = new String(bytes, StandardCharsets.UTF_8);
+                at += length;
+            }
+        }
+        return details;
+    }
+
+    // Compares a stored string with a value without decoding it, as long as the value is plain ASCII.
+
+    private boolean sameString(long reference, String value) {
+        if (reference == NONE || value == null) {
+            return reference == NONE && value == null;
+        }
+        int length = getInt(reference);
+        if (length != value.length() || length > ARENA_CHUNK_SIZE - 4) {
+            return length >= value.length() && value.equals(readString(reference));
+        }
+        ByteBuffer chunk = strings.chunk((int) (reference / ARENA_CHUNK_SIZE));
+        int at = (int) (reference % ARENA_CHUNK_SIZE) + 4;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                return value.equals(readString(reference));
+            }
+            if (chunk.get(at + i) != c) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Arena access by position, split across chunks where an item runs over a chunk boundary.
+
+    private int getInt(long at) {
+        int offset = (int) (at % ARENA_CHUNK_SIZE);
+        if (offset <= ARENA_CHUNK_SIZE - 4) {
+            return strings.chunk((int) (at / ARENA_CHUNK_SIZE)).getInt(offset);
+        }
+        byte[] bytes = new byte[4];
+        getBytes(at, bytes);
+        return ByteBuffer.wrap(bytes).getInt();
+    }
+
+    private void putInt(long at, int value) {
+        int offset = (int) (at % ARENA_CHUNK_SIZE);
+        if (offset <= ARENA_CHUNK_SIZE - 4) {
+            strings.chunk((int) (at / ARENA_CHUNK_SIZE)).putInt(offset, value);
+        } else {
+            putBytes(at, ByteBuffer.allocate(4).putInt(value).array());
+        }
+    }
+
+    private void getBytes(long at, byte[] bytes) {
+        for (int done = 0; done < bytes.length; ) {
+            int offset = (int) ((at + done) % ARENA_CHUNK_SIZE);
+            int length = Math.min(bytes.length - done, ARENA_CHUNK_SIZE - offset);
+            strings.chunk((int) ((at + done) / ARENA_CHUNK_SIZE)).get(offset, bytes, done, length);
+            done += length;
+        }
+    }
+
+    private void putBytes(long at, byte[] bytes) {
+        for (int done = 0; done < bytes.length; ) {
+            int offset = (int) ((at + done) % ARENA_CHUNK_SIZE);
+            int length = Math.min(bytes.length - done, ARENA_CHUNK_SIZE - offset);
+            strings.chunk((int) ((at + done) / ARENA_CHUNK_SIZE)).put(offset, bytes, done, length);
+            done += length;
+        }
+    }
+
+    // A run of equally sized chunks, each its own direct buffer or mapping of the file, made when first used.
+
+    private static final class Region {
+
+        private final FileChannel channel;
+        private final long base;
+        private final int chunkSize;
+        private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+
+        private Region(FileChannel channel, long base, int chunkSize) {
+            this.channel = channel;
+            this.base = base;
+            this.chunkSize = chunkSize;
+        }
+
+        private ByteBuffer chunk(int index) {
+            ByteBuffer[] chunks = this.chunks;
+            return index < chunks.length ? chunks[index] : grow(index);
+        }
+
+        private synchronized ByteBuffer grow(int index) {
+            ByteBuffer[] chunks = this.chunks;
+            if (index >= chunks.length) {
+                chunks = Arrays.copyOf(chunks, index + 1);
+                for (int i = this.chunks.length; i <= index; i++) {
+                    chunks[i] = map(i);
+                }
+                this.chunks = chunks;
+            }
+            return chunks[index];
+        }
+
+        private ByteBuffer map(int index) {
+            if (channel == null) {
+                return ByteBuffer.allocateDirect(chunkSize);
+            }
+            try {
+                // Mapping past the end of the file grows it
+                return channel.map(FileChannel.MapMode.READ_WRITE, base + (long) index * chunkSize, chunkSize);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void force() {
+            for (ByteBuffer chunk : chunks) {
+                ((MappedByteBuffer) chunk).force();
+            }
+        }
+    }
+
+    // The arena entry last written for an author or patron, with the details it holds.
+
+    private static final class Entry {
+
+        private final long reference;
+        private final String[] details;
+
+        private Entry(long reference, String[] details) {
+            this.reference = reference;
+            this.details = details;
+        }
+    }
+
+    // A weak reference to an author or patron that remembers where it is kept, so it can be dropped once
+    // collected, and the entry last written for it.
+
+    private static final class Owner extends WeakReference<Object> {
+
+        private final ConcurrentHashMap<Integer, Owner> byId;
+        private final int id;
+        private volatile Entry entry;
+
+        private Owner(Object object, ConcurrentHashMap<Integer, Owner> byId, int id, Entry entry, ReferenceQueue<Object> queue) {
+            super(object, queue);
+            this.byId = byId;
+            this.id = id;
+            this.entry = entry;
+        }
+    }
+
+    // A weak reference to a record's book that remembers the row, so it can be cleared once the book is collected.
+
+    private static final class View extends WeakReference<Book> {
+
+        private final int row;
+
+        private View(Book book, int row, ReferenceQueue<Book> queue) {
+            super(book, queue);
+            this.row = row;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically moves a library's checked out books to overdue once they pass their due date.
+ * Each book that becomes overdue is published as a BOOK_OVERDUE event on the library's event bus, so
+ * listeners added with Library.addListener hear about it along with every other event, off the sweeper's
+ * thread. Sweeps only look at the loans that are past due, so checkouts are never held up by a sweep.
+ */
+
+public class OverdueSweeper implements AutoCloseable {
+
+    private final Library library;
+    private final Clock clock;
+    private final long intervalNanos;
+    private final ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> sweeps;
+
+    /**
+     * Constructs an OverdueSweeper that checks the library every hour against the system clock.
+     *
+     * @param library The library to sweep.
+     */
+
+    public OverdueSweeper(Library library) {
+        this(library, Clock.systemDefaultZone(), Duration.ofHours(1));
+    }
+
+    /**
+     * Constructs an OverdueSweeper.
+     *
+     * @param library  The library to sweep.
+     * @param clock    The clock that decides today's date.
+     * @param interval The time between two sweeps.
+     */
+
+    public OverdueSweeper(Library library, Clock clock, Duration interval) {
+        if (interval.isNegative() || interval.isZero()) {
+            throw new IllegalArgumentException("Sweep interval must be positive: " + interval);
+        }
+        if (interval.compareTo(Duration.ofNanos(Long.MAX_VALUE)) > 0) {
+            throw new IllegalArgumentException("Sweep interval is too long: " + interval);
+        }
+        this.library = library;
+        this.clock = clock;
+        this.intervalNanos = interval.toNanos();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(VirtualThreads.newThreadFactory("overdue-sweeper"));
+    }
+
+    /**
+     * Starts sweeping the library at the configured interval. Does nothing if already started.
+     */
+
+    public synchronized void start() {
+        if (sweeps == null) {
+            sweeps = scheduler.scheduleAtFixedRate(this::sweepAndReport, intervalNanos, intervalNanos,
+                    TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Stops the periodic sweeps. A sweep already in progress is allowed to finish.
+     */
+
+    public synchronized void stop() {
+        if (sweeps != null) {
+            sweeps.cancel(false);
+            sweeps = null;
+        }
+    }
+
+    /**
+     * Sweeps the library once, right away, publishing a BOOK_OVERDUE event for each book that becomes
+     * overdue. Holds past their pickup deadline are expired as well.
+     *
+     * @return The books that became overdue during this sweep.
+     */
+
+    public List<Book> sweep() {
+        library.expireHolds();
+        return library.markOverdue(LocalDate.now(clock));
+    }
+
+    // Runs a scheduled sweep. A failure is handed to the thread's uncaught exception handler rather than
+    // thrown, since a scheduled task that throws is never run again.
+
+    private void sweepAndReport() {
+        try {
+            sweep();
+        } catch (RuntimeException e) {
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+    }
+
+    /**
+     * Stops sweeping and releases the sweeper's threads.
+     */
+
+    @Override
+    public void close() {
+        stop();
+        scheduler.shutdown();
+    }
+}
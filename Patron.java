@@ -1,4 +1,6 @@
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The Patron class represents a library patron.
@@ -8,7 +10,7 @@ import java.util.ArrayList;
 
 public class Patron {
 
-    private static int nextId = 1;
+    private static final AtomicInteger nextId = new AtomicInteger(1);
 
     private int patronId; 
     private String name;   
@@ -17,7 +19,7 @@ public class Patron {
     private String province;
     private String postalCode;
     private String phone;
-    private ArrayList <Book> borrowedBooks; 
+    private LinkedHashSet <Book> borrowedBooks; // Books compare by identity, so lookups and removals are constant time
 
     /**
      * Constructs a new Patron object with the specified details.
@@ -33,14 +35,51 @@ public class Patron {
 
     public Patron( String name, String address, String city, String province,String postalCode, String phone){
 
-        this.patronId = nextId++;
+        this(nextId.getAndIncrement(), name, address, city, province, postalCode, phone);
+    }
+
+    /**
+     * Constructs a Patron object that keeps an ID it was given before, such as one restored from a snapshot.
+     *
+     * @param patronId   The ID of the patron.
+     * @param name       The name of the patron.
+     * @param address    The address of the patron.
+     * @param city       The city of the patron.
+     * @param province   The province of the patron.
+     * @param postalCode The postal code of the patron.
+     * @param phone      The phone number of the patron.
+     */
+
+    Patron(int patronId, String name, String address, String city, String province, String postalCode, String phone){
+
+        this.patronId = patronId;
         this.name = name;
         this.address = address;
         this.city = city;
         this.province = province;
         this.postalCode = postalCode;
         this.phone = phone;
-        this.borrowedBooks = new ArrayList<>();      
+        this.borrowedBooks = new LinkedHashSet<>();      
+    }
+
+    /**
+     * Gets the ID the next new patron will get.
+     *
+     * @return The next patron ID.
+     */
+
+    static int peekNextId(){
+        return nextId.get();
+    }
+
+    /**
+     * Makes sure new patrons get IDs of at least the given value, so they don't clash with restored ones.
+     *
+     * @param id The lowest ID new patrons may get.
+     */
+
+    static void reserveIdsBelow(int id){
+        nextId.accumulateAndGet(id, Math::max);
     }
 
     /**
@@ -175,12 +214,13 @@ public class Patron {
 
     /**
      * Gets the list of books borrowed by the patron.
+     * The list is a copy, so it can be read while other desks update the patron's loans.
      *
      * @return The list of borrowed books.
      */
 
-    public ArrayList<Book> getBorrowedBooks(){
-        return borrowedBooks;
+    public synchronized ArrayList<Book> getBorrowedBooks(){
+        return new ArrayList<>(borrowedBooks);
     }
 
     /**
@@ -189,7 +229,7 @@ public class Patron {
      * @param book The book to be added.
      */
 
-    public void addBorrowedBook(Book book) {
+    public synchronized void addBorrowedBook(Book book) {
         borrowedBooks.add(book);
     }
 
@@ -199,7 +239,7 @@ public class Patron {
      * @param book The book to be removed.
      */
 
-    public void removeBorrowedBook(Book book) {
+    public synchronized void removeBorrowedBook(Book book) {
         borrowedBooks.remove(book);
     }
 
@@ -210,7 +250,7 @@ public class Patron {
      * @return True if the patron has borrowed the book, false otherwise.
      */
 
-    public boolean hasBook(Book book) {
+    public synchronized boolean hasBook(Book book) {
         return borrowedBooks.contains(book);
     }
 
@@ -0,0 +1,282 @@
+import java.util.function.Predicate;
+
+/**
+ * An immutable map from int keys to values, where adding or removing a key makes a new map that shares
+ * all but a few nodes with the old one.
+ *
+ * The map is a big-endian Patricia trie: each branch splits its keys on the highest bit in which they
+ * differ, so a lookup or change touches one node per distinguishing bit, at most 32, and the keys come out
+ * in numeric order. A change copies only the nodes on the path to its key.
+ *
+ * Changes may pass an edit token. Nodes made under a token belong to it, and later changes under the same
+ * token update them in place instead of copying them again. A batch of changes then costs little more than
+ * the same changes to a mutable map. Maps made under a token must not be shared until the batch is done,
+ * and the token must not be used after that.
+ *
+ * @param <V> The type of the values, which can't be null.
+ */
+
+final class PersistentIntMap<V> {
+
+    private static final PersistentIntMap<?> EMPTY = new PersistentIntMap<>(null, 0);
+
+    private final Node<V> root;
+    private final int size;
+
+    private PersistentIntMap(Node<V> root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Gets the empty map.
+     *
+     * @param <V> The type of the values.
+     * @return The empty map.
+     */
+
+    @SuppressWarnings("unchecked")
+    static <V> PersistentIntMap<V> empty() {
+        return (PersistentIntMap<V>) EMPTY;
+    }
+
+    /**
+     * Gets the value for a key.
+     *
+     * @param key The key.
+     * @return The value, or null if the map doesn't hold the key.
+     */
+
+    V get(int key) {
+        int bits = flip(key);
+        Node<V> node = root;
+        while (node instanceof Branch) {
+            Branch<V> branch = (Branch<V>) node;
+            if (prefix(bits, branch.mask) != branch.prefix) {
+                return null;
+            }
+            node = (bits & branch.mask) == 0 ? branch.left : branch.right;
+        }
+        return node != null && ((Tip<V>) node).key == key ? ((Tip<V>) node).value : null;
+    }
+
+    /**
+     * Makes a map with a key set to a value.
+     *
+     * @param key   The key.
+     * @param value The value.
+     * @param edit  The edit token of the batch this change is part of, or null.
+     * @return The new map, which is this one if the key already had the value.
+     */
+
+    PersistentIntMap<V> with(int key, V value, Object edit) {
+        if (value == null) {
+            throw new IllegalArgumentException("Values can't be null");
+        }
+        V previous = get(key);
+        if (previous == value) {
+            return this;
+        }
+        Node<V> changed = put(root, flip(key), key, value, edit);
+        return new PersistentIntMap<>(changed, previous == null ? size + 1 : size);
+    }
+
+    /**
+     * Makes a map without a key.
+     *
+     * @param key  The key.
+     * @param edit The edit token of the batch this change is part of, or null.
+     * @return The new map, which is this one if it didn't hold the key.
+     */
+
+    PersistentIntMap<V> without(int key, Object edit) {
+        if (get(key) == null) {
+            return this;
+        }
+        return new PersistentIntMap<>(take(root, flip(key), key, edit), size - 1);
+    }
+
+    /**
+     * Gets the number of keys in the map.
+     *
+     * @return The number of keys.
+     */
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Checks whether the map is empty.
+     *
+     * @return True if the map holds no keys.
+     */
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Visits the values in key order, until the visitor returns false.
+     *
+     * @param visitor Called with each value; returns false to stop.
+     */
+
+    void forEach(Predicate<? super V> visitor) {
+        visit(root, 0, false, visitor);
+    }
+
+    /**
+     * Visits the values with keys above afterKey in key order, until the visitor returns false.
+     *
+     * @param afterKey The key to start after.
+     * @param visitor  Called with each value; returns false to stop.
+     */
+
+    void forEachAfter(int afterKey, Predicate<? super V> visitor) {
+        visit(root, flip(afterKey), true, visitor);
+    }
+
+    // Keys are stored as given but compared with the sign bit flipped, so that unsigned bit order is
+    // numeric order and negative keys come before positive ones.
+
+    private static int flip(int key) {
+        return key ^ Integer.MIN_VALUE;
+    }
+
+    // The bits above the mask bit, which every key under a branch with that mask shares.
+
+    private static int prefix(int bits, int mask) {
+        return bits & (-mask ^ mask);
+    }
+
+    private static <V> Node<V> put(Node<V> node, int bits, int key, V value, Object edit) {
+        if (node == null) {
+            return new Tip<>(key, value, edit);
+        }
+        if (node instanceof Tip) {
+            Tip<V> tip = (Tip<V>) node;
+            if (tip.key != key) {
+                return join(bits, new Tip<>(key, value, edit), flip(tip.key), tip, edit);
+            }
+            if (edit != null && tip.edit == edit) {
+                tip.value = value;
+                return tip;
+            }
+            return new Tip<>(key, value, edit);
+        }
+        Branch<V> branch = (Branch<V>) node;
+        if (prefix(bits, branch.mask) != branch.prefix) {
+            return join(bits, new Tip<>(key, value, edit), branch.prefix, branch, edit);
+        }
+        boolean left = (bits & branch.mask) == 0;
+        Node<V> child = left ? branch.left : branch.right;
+        return replace(branch, left, put(child, bits, key, value, edit), edit);
+    }
+
+    private static <V> Node<V> take(Node<V> node, int bits, int key, Object edit) {
+        if (node instanceof Tip) {
+            return ((Tip<V>) node).key == key ? null : node;
+        }
+        Branch<V> branch = (Branch<V>) node;
+        boolean left = (bits & branch.mask) == 0;
+        Node<V> child = left ? branch.left : branch.right;
+        Node<V> changed = take(child, bits, key, edit);
+        if (changed == null) {
+            return left ? branch.right : branch.left; // A branch with one child is replaced by the child
+        }
+        return replace(branch, left, changed, edit);
+    }
+
+    // Swaps one child of a branch, in place if the branch belongs to the edit and by copying it otherwise.
+
+    private static <V> Node<V> replace(Branch<V> branch, boolean left, Node<V> child, Object edit) {
+        if (child == (left ? branch.left : branch.right)) {
+            return branch;
+        }
+        if (edit != null && branch.edit == edit) {
+            if (left) {
+                branch.left = child;
+            } else {
+                branch.right = child;
+            }
+            return branch;
+        }
+        return left ? new Branch<>(branch.prefix, branch.mask, child, branch.right, edit)
+                : new Branch<>(branch.prefix, branch.mask, branch.left, child, edit);
+    }
+
+    // Joins two subtrees whose prefixes differ under a new branch on their highest differing bit.
+
+    private static <V> Node<V> join(int bits1, Node<V> node1, int bits2, Node<V> node2, Object edit) {
+        int mask = Integer.highestOneBit(bits1 ^ bits2);
+        int prefix = prefix(bits1, mask);
+        return (bits1 & mask) == 0 ? new Branch<>(prefix, mask, node1, node2, edit)
+                : new Branch<>(prefix, mask, node2, node1, edit);
+    }
+
+    // Walks a subtree in key order. While bounded, keys at or below the bound are skipped; subtrees wholly
+    // below it are passed over, and those wholly above it are walked without the check.
+
+    private static <V> boolean visit(Node<V> node, int bound, boolean bounded, Predicate<? super V> visitor) {
+        if (node == null) {
+            return true;
+        }
+        if (node instanceof Tip) {
+            Tip<V> tip = (Tip<V>) node;
+            return (bounded && Integer.compareUnsigned(flip(tip.key), bound) <= 0) || visitor.test(tip.value);
+        }
+        Branch<V> branch = (Branch<V>) node;
+        if (bounded) {
+            int boundPrefix = prefix(bound, branch.mask);
+            if (boundPrefix != branch.prefix) {
+                if (Integer.compareUnsigned(branch.prefix, boundPrefix) < 0) {
+                    return true;
+                }
+                bounded = false;
+            } else if ((bound & branch.mask) != 0) {
+                return visit(branch.right, bound, true, visitor);
+            }
+        }
+        return visit(branch.left, bound, bounded, visitor) && visit(branch.right, bound, false, visitor);
+    }
+
+    // Nodes record the edit token they were made under, if any.
+
+    private abstract static class Node<V> {
+
+        final Object edit;
+
+        Node(Object edit) {
+            this.edit = edit;
+        }
+    }
+
+    private static final class Tip<V> extends Node<V> {
+
+        final int key;
+        V value;
+
+        Tip(int key, V value, Object edit) {
+            super(edit);
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private static final class Branch<V> extends Node<V> {
+
+        final int prefix;
+        final int mask;
+        Node<V> left;
+        Node<V> right;
+
+        Branch(int prefix, int mask, Node<V> left, Node<V> right, Object edit) {
+            super(edit);
+            this.prefix = prefix;
+            this.mask = mask;
+            this.left = left;
+            this.right = right;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the requests one endpoint served and how long they took.
+ *
+ * Latencies go into buckets that double in width, from under a microsecond up to minutes, so recording
+ * one is a single atomic increment and percentiles are read off the buckets. A percentile is reported as
+ * the upper edge of its bucket, so it is accurate to within a factor of two.
+ */
+
+public class RequestMetrics {
+
+    private static final int BUCKETS = 40; // Bucket i holds latencies below 2^i microseconds
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder clientErrors = new LongAdder();
+    private final LongAdder serverErrors = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0L);
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Records a request that was served.
+     *
+     * @param status The HTTP status of the response.
+     * @param nanos  How long the request took, in nanoseconds.
+     */
+
+    public void record(int status, long nanos) {
+        requests.increment();
+        if (status >= 500) {
+            serverErrors.increment();
+        } else if (status >= 400) {
+            clientErrors.increment();
+        }
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        buckets.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+    }
+
+    /**
+     * Records a request that was turned away because the server was at its limit.
+     */
+
+    public void reject() {
+        rejected.increment();
+    }
+
+    /**
+     * Gets the number of requests served.
+     *
+     * @return The number of requests.
+     */
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * Gets the number of requests turned away because the server was at its limit.
+     *
+     * @return The number of rejected requests.
+     */
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Gets a latency percentile.
+     *
+     * @param percentile The percentile, from 0 to 100.
+     * @return The latency in microseconds that at least that share of requests finished within.
+     */
+
+    public long getPercentileMicros(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        long wanted = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= wanted && seen > 0) {
+                return 1L << i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Writes the metrics as a JSON object.
+     *
+     * @param out The builder to append to.
+     */
+
+    public void appendJson(StringBuilder out) {
+        long count = requests.sum();
+        out.append("{\"requests\":").append(count)
+                .append(",\"clientErrors\":").append(clientErrors.sum())
+                .append(",\"serverErrors\":").append(serverErrors.sum())
+                .append(",\"rejected\":").append(rejected.sum())
+                .append(",\"meanMicros\":").append(count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos.sum() / count))
+                .append(",\"p50Micros\":").append(getPercentileMicros(50))
+                .append(",\"p99Micros\":").append(getPercentileMicros(99))
+                .append(",\"p999Micros\":").append(getPercentileMicros(99.9))
+                .append(",\"maxMicros\":").append(TimeUnit.NANOSECONDS.toMicros(maxNanos.get()))
+                .append('}');
+    }
+}
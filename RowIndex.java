@@ -0,0 +1,262 @@
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntPredicate;
+
+/**
+ * Maps book IDs to the rows a book store keeps them in, and hands out free rows.
+ *
+ * Rows freed by deletes are reused before new ones are handed out, so a store never needs more rows than
+ * books it has held at once. IDs are also kept in order for paging. Deleted IDs stay in that order until
+ * they outnumber the live ones, so deleting is constant time.
+ *
+ * The index is not thread safe. Callers guard changes with a lock, but find may run unlocked as an optimistic
+ * read: it reads a single array and always terminates, though it may throw or return a wrong row while a
+ * change is under way, so such reads must be validated, as find with the lock does.
+ */
+
+class RowIndex {
+
+    private static final int MIN_CAPACITY = 16;
+    private static final int COMPACT_THRESHOLD = 1024;
+
+    // Open addressing slots holding the ID in the high half and the row plus one in the low half.
+
+    private long[] slots = new long[MIN_CAPACITY];
+    private volatile int size;
+
+    // Rows freed by deletes, reused before new rows.
+
+    private int rowCount;
+    private int[] freeRows = new int[MIN_CAPACITY];
+    private int freeCount;
+
+    // Book IDs in order, including deleted ones not yet compacted away.
+
+    private int[] order = new int[MIN_CAPACITY];
+    private int orderCount;
+    private int deletedInOrder;
+
+    /**
+     * Finds the row of a book.
+     *
+     * @param id The ID of the book.
+     * @return The row, or -1 if the index doesn't hold the ID.
+     */
+
+    int find(int id) {
+        long[] slots = this.slots;
+        int mask = slots.length - 1;
+        for (int i = slotOf(id, mask); slots[i] != 0L; i = (i + 1) & mask) {
+            if ((int) (slots[i] >>> 32) == id) {
+                return (int) slots[i] - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the row of a book for a caller that doesn't hold the lock guarding changes. The lookup is tried
+     * as an optimistic read first, and only takes the read lock if a change got in the way.
+     *
+     * @param id   The ID of the book.
+     * @param lock The lock the index's changes are made under.
+     * @return The row, or -1 if the index doesn't hold the ID.
+     */
+
+    int find(int id, StampedLock lock) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0L) {
+            try {
+                int row = find(id);
+                if (lock.validate(stamp)) {
+                    return row;
+                }
+            } catch (RuntimeException e) {
+                // A torn read, treated the same as a failed validation
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return find(id);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Adds an ID in a free row. The ID must not be in the index already.
+     *
+     * @param id The ID of the book.
+     * @return The row given to the book.
+     */
+
+    int insert(int id) {
+        int row = freeCount > 0 ? freeRows[--freeCount] : rowCount++;
+        insertAt(id, row);
+        return row;
+    }
+
+    /**
+     * Adds an ID in a given row, for a store loading rows it already has. Rows below the highest one loaded
+     * that hold no book must be passed to free.
+     *
+     * @param id  The ID of the book.
+     * @param row The row the book is in.
+     */
+
+    void insertAt(int id, int row) {
+        rowCount = Math.max(rowCount, row + 1);
+        if ((size + 1) * 2 > slots.length) {
+            long[] grown = new long[slots.length * 2];
+            for (long slot : slots) {
+                if (slot != 0L) {
+                    place(grown, slot);
+                }
+            }
+            slots = grown;
+        }
+        place(slots, ((long) id << 32) | (row + 1L));
+        size++;
+        insertInOrder(id);
+    }
+
+    /**
+     * Removes an ID and frees its row.
+     *
+     * @param id The ID of the book.
+     * @return The row the book was in, or -1 if the index didn't hold the ID.
+     */
+
+    int remove(int id) {
+        int row = find(id);
+        if (row < 0) {
+            return -1;
+        }
+        removeSlot(id);
+        size--;
+        free(row);
+        deletedInOrder++;
+        if (deletedInOrder > COMPACT_THRESHOLD && deletedInOrder > size) {
+            compactOrder();
+        }
+        return row;
+    }
+
+    /**
+     * Marks a row as free.
+     *
+     * @param row The row.
+     */
+
+    void free(int row) {
+        rowCount = Math.max(rowCount, row + 1);
+        if (freeCount == freeRows.length) {
+            freeRows = Arrays.copyOf(freeRows, freeCount * 2);
+        }
+        freeRows[freeCount++] = row;
+    }
+
+    /**
+     * Visits the IDs above afterId in order, until the visitor returns false.
+     *
+     * @param afterId The ID to start after.
+     * @param visitor Called with each ID; returns false to stop.
+     */
+
+    void forEachAfter(int afterId, IntPredicate visitor) {
+        int i = Arrays.binarySearch(order, 0, orderCount, afterId);
+        for (i = i < 0 ? -i - 1 : i + 1; i < orderCount; i++) {
+            if (find(order[i]) >= 0 && !visitor.test(order[i])) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of IDs in the index.
+     *
+     * @return The number of IDs.
+     */
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Gets the number of rows handed out so far, free or not.
+     *
+     * @return One more than the highest row.
+     */
+
+    int rowCount() {
+        return rowCount;
+    }
+
+    private static void place(long[] slots, long slot) {
+        int mask = slots.length - 1;
+        int i = slotOf((int) (slot >>> 32), mask);
+        while (slots[i] != 0L) {
+            i = (i + 1) & mask;
+        }
+        slots[i] = slot;
+    }
+
+    // Linear probing removal: shift later entries of the same probe run back into the gap.
+
+    private void removeSlot(int id) {
+        long[] slots = this.slots;
+        int mask = slots.length - 1;
+        int gap = slotOf(id, mask);
+        while ((int) (slots[gap] >>> 32) != id) {
+            gap = (gap + 1) & mask;
+        }
+        int i = gap;
+        while (true) {
+            i = (i + 1) & mask;
+            if (slots[i] == 0L) {
+                break;
+            }
+            int home = slotOf((int) (slots[i] >>> 32), mask);
+            boolean movable = gap <= i ? (home <= gap || home > i) : (home <= gap && home > i);
+            if (movable) {
+                slots[gap] = slots[i];
+                gap = i;
+            }
+        }
+        slots[gap] = 0L;
+    }
+
+    private static int slotOf(int id, int mask) {
+        int h = id * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    // New books nearly always have the highest ID yet, so they are appended; an older ID is inserted in place.
+    // An ID deleted and added again is still in the order and only stops counting as deleted.
+
+    private void insertInOrder(int id) {
+        int i = orderCount == 0 || order[orderCount - 1] < id ? -orderCount - 1 : Arrays.binarySearch(order, 0, orderCount, id);
+        if (i >= 0) {
+            deletedInOrder--;
+            return;
+        }
+        i = -i - 1;
+        if (orderCount == order.length) {
+            order = Arrays.copyOf(order, orderCount * 2);
+        }
+        System.arraycopy(order, i, order, i + 1, orderCount - i);
+        order[i] = id;
+        orderCount++;
+    }
+
+    private void compactOrder() {
+        int kept = 0;
+        for (int i = 0; i < orderCount; i++) {
+            if (find(order[i]) >= 0) {
+                order[kept++] = order[i];
+            }
+        }
+        orderCount = kept;
+        deletedInOrder = 0;
+    }
+}
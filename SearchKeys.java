@@ -0,0 +1,63 @@
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Turns titles and names into the keys they are searched by.
+ *
+ * A key is the text with accents stripped and case folded, so a title typed with or without its
+ * accents, in any case, finds the same books. Keys stored on books and authors are interned, so every
+ * copy of a title points at the same string.
+ */
+
+public final class SearchKeys {
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private SearchKeys() {
+    }
+
+    /**
+     * Gets the search key for a piece of text.
+     *
+     * @param text The title or name.
+     * @return The search key, or null if text is null.
+     */
+
+    public static String normalize(String text) {
+        if (text == null) {
+            return null;
+        }
+        String folded = text;
+        if (!isPlainAscii(text)) {
+            // Split accented letters into letter plus mark, then drop the marks
+            folded = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+            // Upper casing first folds letters such as the German sharp s the way a case-insensitive compare does
+            folded = folded.toUpperCase(Locale.ROOT);
+        }
+        return folded.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Gets the interned search key for a piece of text, for keys that are kept on books and authors.
+     *
+     * @param text The title or name.
+     * @return The interned search key, or null if text is null.
+     */
+
+    static String intern(String text) {
+        String key = normalize(text);
+        return key == null ? null : key.intern();
+    }
+
+    // Most titles and names are plain ASCII, which only needs lower casing.
+
+    private static boolean isPlainAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
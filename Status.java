@@ -1,3 +1,17 @@
+/**
+ * Where a copy of a book is: on the shelf, out on loan, or set aside for a patron who placed a hold.
+ */
+
 public enum Status {
-    AVAILABLE, CHECKED_OUT, OVERDUE
+    AVAILABLE, CHECKED_OUT, OVERDUE, ON_HOLD;
+
+    /**
+     * Checks whether a copy with this status is out on loan.
+     *
+     * @return True for checked out and overdue copies.
+     */
+
+    public boolean isOnLoan() {
+        return this == CHECKED_OUT || this == OVERDUE;
+    }
 }
@@ -1,6 +1,8 @@
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
  
 /**
  * This class provides a simple command-line interface to test the functionality
@@ -27,6 +29,10 @@ public class TestLibrary {
        
         loadData(library);
 
+        // Print borrow and return messages as the library reports them
+
+        library.addListener(new ConsoleListener());
+
         // Show initial library data
 
         System.out.println();
@@ -95,33 +101,23 @@ public class TestLibrary {
             System.out.println("Enter the Book ID of the book you want to borrow:");
             int bookID = scanner.nextInt();
 
-            // Find the book in the list by its id
+            // Find the book by its id
 
-            Book bookToBorrow = null;
-            for (Book book : allBooks) {
-                if (book.getBookId() == (bookID)) {
-                    bookToBorrow = book;
-                    break;
-                }
-            }
+            Book bookToBorrow = library.findBookById(bookID);
 
             // Prompt user to select a patron
 
             System.out.println("Enter the Patron ID of the patron who wants to borrow the book:");
             int patronID = scanner.nextInt();
 
-            // Find patron in list by it's id
+            // Find patron by its id
 
-            Patron borrowingPatron = null;
-            for (Patron patron : allPatrons) {
-                if (patron.getPatronID() == (patronID)) {
-                    borrowingPatron = patron;
-                    break;
-            }}
+            Patron borrowingPatron = library.findPatronById(patronID);
 
             // Borrow a book using library borrowBook method
 
             library.borrowBook(borrowingPatron, bookToBorrow);
+            waitForMessages(library);
 
             System.out.println();
 
@@ -160,33 +156,23 @@ public class TestLibrary {
             System.out.println("Enter the Patron ID of the patron who wants to return a book:");
              int patronID = scanner.nextInt();
 
-            // Find patron in list by it's id
+            // Find patron by its id
 
-            Patron returningPatron = null;
-            for (Patron patron : allPatrons) {
-                if (patron.getPatronID() == (patronID)) {
-                    returningPatron = patron;
-                    break;
-            }}
+            Patron returningPatron = library.findPatronById(patronID);
 
             // Prompt user to select a book
 
             System.out.println("Enter the Book ID of the book you want to return:");
              int bookID = scanner.nextInt();
 
-            // Find the book in the list by its id
+            // Find the book by its id
 
-            Book bookToReturn = null;
-            for (Book book : allBooks) {
-                if (book.getBookId() == (bookID)) {
-                    bookToReturn = book;
-                    break;
-                }
-            }
+            Book bookToReturn = library.findBookById(bookID);
 
             // Return a book using the library class returnBook method
 
             library.returnBook(returningPatron, bookToReturn);
+            waitForMessages(library);
 
             // Print the returning patron's borrowedBooks array if it is not empty. For each loop to print out each book in the list line by line.
 
@@ -225,21 +211,13 @@ public class TestLibrary {
             System.out.println("ID: " + author.getAuthorID() + ", Name: " + author.getName());
         }
 
-        // Find author in it's list by id
+        // Read the id of the author to delete
         
         int authorIDToDelete = scanner.nextInt();
         
-        Author authorToDelete = null;
-        for (Author author : library.getAllAuthors()) {
-            if (author.getAuthorID() == authorIDToDelete) {
-                authorToDelete = author;
-                break;
-            }
-        }
-
         // Delete an author using the Library class deleteAuthor method
 
-        library.deleteAuthor(authorToDelete);
+        library.deleteAuthor(authorIDToDelete);
 
         System.out.println();
 
@@ -253,14 +231,7 @@ public class TestLibrary {
 
         int bookIDToDelete = scanner.nextInt();
 
-        Book bookToDelete = null;
-        for (Book book : library.getAllBooks()) {
-            if (book.getBookId() == bookIDToDelete) {
-                bookToDelete = book;
-                break;
-            }
-        }
-        library.deleteBook(bookToDelete);
+        library.deleteBook(bookIDToDelete);
 
         System.out.println();
 
@@ -274,15 +245,7 @@ public class TestLibrary {
         
         int patronIDToDelete = scanner.nextInt();
 
-        Patron patronToDelete = null;
-        for (Patron patron : library.getAllPatrons()) {
-            if (patron.getPatronID() == patronIDToDelete) {
-                patronToDelete = patron;
-                break;
-            }
-        }
-       
-        library.deletePatron(patronToDelete);
+        library.deletePatron(patronIDToDelete);
 
         System.out.println();
 
@@ -301,12 +264,7 @@ public class TestLibrary {
 
         int bookIDToUpdate = scanner.nextInt();
 
-        Book bookToUpdate = null;
-        for (Book book : allBooks) {
-            if (book.getBookId() == (bookIDToUpdate)) {
-                bookToUpdate = book;
-                break;
-        }}
+        Book bookToUpdate = library.findBookById(bookIDToUpdate);
         bookToUpdate.setDueDate(LocalDate.now().minusDays(1));
         bookToUpdate.setStatus(Status.OVERDUE);
 
@@ -318,12 +276,37 @@ public class TestLibrary {
 
         System.out.println(library);
 
-        library.OverdueBookList();
+        // Print the list of overdue books
+
+        List<Book> overdueBooks = library.OverdueBookList();
+        if (!overdueBooks.isEmpty()) {
+            System.out.println("Overdue books:");
+            System.out.println("**************");
+            for (Book book : overdueBooks) {
+                System.out.println("BOOK [ID: " + book.getBookId() + " Title: '" + book.getTitle() + "']");
+            }
+        } else {
+            System.out.println("No books are currently overdue.");
+        }
 
         System.out.println();
       
     }
 
+    /**
+     * Waits for the library's event messages to be printed, so they appear before what the demo prints next.
+     * 
+     * @param library The library whose events are being printed.
+     */
+
+    private static void waitForMessages(Library library) {
+        try {
+            library.getEvents().awaitDelivery(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * Loads initial data into the library.
      * 
@@ -0,0 +1,468 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * Indexes one kind of text of the books in a library, such as their titles or their authors' names,
+ * for exact, prefix and typo-tolerant searches.
+ *
+ * Books are filed by ID under their search key (see SearchKeys) in a hash map for exact searches. Each bucket
+ * is a BookIds, a sorted array of IDs. Prefix and typo-tolerant searches also need the keys in order and every
+ * word of them, each in a sorted map so prefix searches walk a sorted range and stop as soon as they have
+ * enough results, and every word broken into trigrams, packed into an int each; a typo-tolerant search takes
+ * its candidates from the books that have the query's rarest trigrams and counts the trigrams each shares with
+ * it. Those structures are built by buildWords the first time such a search is asked for, so exact searches
+ * and bulk loads never pay for them, and kept up to date from then on. Words and trigrams keep their book IDs
+ * in compact arrays; removed books are left in those arrays and skipped when found, until there are enough of
+ * them to be worth a rebuild. The index holds only IDs, so it doesn't keep the books themselves in memory.
+ *
+ * The index is not thread-safe on its own: the library changes it under its catalog write lock. Searches
+ * may run optimistically alongside a writer, like the library's other lookups: the key maps are concurrent
+ * maps, which are safe to read while they change, and anything else torn fails the library's validation.
+ */
+
+public class TextIndex {
+
+    private static final int MIN_STALE_FOR_REBUILD = 1024;
+    private static final double MIN_SIMILARITY = 0.5;
+    private static final int MAX_CANDIDATES = 10_000;
+
+    private final Function<Book, String> keyOf;
+    private final IntFunction<Book> books;
+    private final Map<String, BookIds> byKey = new ConcurrentHashMap<>();
+
+    // Built by buildWords, and null until then.
+
+    private volatile NavigableSet<String> sortedKeys;
+    private NavigableMap<String, Postings> byWord;
+    private IdMap<Postings> byTrigram;
+    private int live;
+    private int stale;
+
+    /**
+     * Constructs an empty TextIndex.
+     *
+     * @param keyOf Gets the search key a book is filed under, or null if it has none.
+     * @param books Finds a book by ID, or returns null if it is gone.
+     */
+
+    public TextIndex(Function<Book, String> keyOf, IntFunction<Book> books) {
+        this.keyOf = keyOf;
+        this.books = books;
+    }
+
+    /**
+     * Files a book under its current key.
+     *
+     * @param book The book to add.
+     */
+
+    public void add(Book book) {
+        String key = keyOf.apply(book);
+        if (key == null) {
+            return;
+        }
+        BookIds bucket = byKey.getOrDefault(key, BookIds.EMPTY);
+        BookIds added = bucket.with(book.getBookId());
+        if (added == bucket) {
+            return; // Already filed under this key
+        }
+        byKey.put(key, added);
+        if (sortedKeys != null) {
+            if (bucket.isEmpty()) {
+                sortedKeys.add(key);
+            }
+            fileWords(book.getBookId(), key);
+        }
+        live++;
+    }
+
+    /**
+     * Takes a book out of the index. The book must still have the key it was added under.
+     *
+     * @param book The book to remove.
+     */
+
+    public void remove(Book book) {
+        String key = keyOf.apply(book);
+        BookIds bucket = key == null ? null : byKey.get(key);
+        BookIds removed = bucket == null ? null : bucket.without(book.getBookId());
+        if (removed == bucket) {
+            return;
+        }
+        if (removed.isEmpty()) {
+            byKey.remove(key);
+            if (sortedKeys != null) {
+                sortedKeys.remove(key);
+            }
+        } else {
+            byKey.put(key, removed);
+        }
+        live--;
+        if (sortedKeys != null && ++stale > MIN_STALE_FOR_REBUILD && stale > live) {
+            buildWords();
+        }
+    }
+
+    /**
+     * Finds the books whose key is exactly the given key.
+     *
+     * @param key The search key.
+     * @return The matching books, in ID order.
+     */
+
+    public ArrayList<Book> exact(String key) {
+        BookIds bucket = bucket(key);
+        ArrayList<Book> found = new ArrayList<>(bucket.size());
+        for (int i = 0; i < bucket.size(); i++) {
+            Book book = books.apply(bucket.get(i));
+            if (book != null) {
+                found.add(book);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Gets the IDs of the books filed under a key, for paging or streaming through them.
+     *
+     * @param key The search key.
+     * @return The IDs of the matching books, in order. The set doesn't change, so it is safe to walk while the index does.
+     */
+
+    public BookIds bucket(String key) {
+        BookIds bucket = key == null ? null : byKey.get(key);
+        return bucket == null ? BookIds.EMPTY : bucket;
+    }
+
+    /**
+     * Checks whether the structures for prefix and typo-tolerant searches have been built.
+     *
+     * @return True once buildWords has run.
+     */
+
+    public boolean hasWords() {
+        return sortedKeys != null;
+    }
+
+    /**
+     * Builds, or rebuilds from scratch, the sorted keys, words and trigrams that prefix and typo-tolerant
+     * searches need, from the books filed so far. From then on adds and removes keep them up to date.
+     * Called under the same lock as add and remove.
+     */
+
+    public void buildWords() {
+        Map<String, Postings> words = new HashMap<>();
+        IdMap<Postings> trigrams = new IdMap<>();
+        List<Postings> created = new ArrayList<>();
+        for (Map.Entry<String, BookIds> entry : byKey.entrySet()) {
+            BookIds bucket = entry.getValue();
+            for (int i = 0; i < bucket.size(); i++) {
+                fileWords(bucket.get(i), entry.getKey(), words::get, (word, postings) -> {
+                    words.put(word, postings);
+                    created.add(postings);
+                }, trigrams, created);
+            }
+        }
+        // Keys come in no particular order; put each array in ID order, as adds keep it
+        for (Postings postings : created) {
+            Arrays.sort(postings.ids, 0, postings.size);
+        }
+        // Sorted maps built from sorted input are filled in one pass
+        byWord = new ConcurrentSkipListMap<>(new TreeMap<>(words));
+        byTrigram = trigrams;
+        stale = 0;
+        sortedKeys = new ConcurrentSkipListSet<>(new TreeSet<>(byKey.keySet()));
+    }
+
+    /**
+     * Finds books for a query that may still be being typed. Books whose whole key starts with the query come
+     * first, in key order; then books with a word starting with the last word of the query and containing
+     * the query's other words.
+     *
+     * @param query The normalized query.
+     * @param limit The most books to return.
+     * @return Up to limit matching books, best first.
+     */
+
+    public ArrayList<Book> prefix(String query, int limit) {
+        Set<Book> found = new LinkedHashSet<>();
+        if (query == null || query.isEmpty() || limit <= 0) {
+            return new ArrayList<>();
+        }
+        requireWords();
+        if (collect(sortedKeys.tailSet(query, true), query, found, limit)) {
+            return new ArrayList<>(found);
+        }
+        List<String> words = words(query);
+        if (words.isEmpty()) {
+            return new ArrayList<>(found);
+        }
+        String last = words.get(words.size() - 1);
+        List<String> required = words.subList(0, words.size() - 1);
+        for (Map.Entry<String, Postings> entry : byWord.tailMap(last, true).entrySet()) {
+            if (!entry.getKey().startsWith(last)) {
+                break;
+            }
+            Postings postings = entry.getValue();
+            int[] ids = postings.ids;
+            int size = Math.min(postings.size, ids.length);
+            for (int i = 0; i < size; i++) {
+                Book book = books.apply(ids[i]);
+                if (book == null || found.contains(book) || !isFiled(book)) {
+                    continue;
+                }
+                // The array may be left over from an earlier key, so check the words against the current one
+                List<String> have = words(keyOf.apply(book));
+                if (have.contains(entry.getKey()) && have.containsAll(required)) {
+                    found.add(book);
+                    if (found.size() >= limit) {
+                        return new ArrayList<>(found);
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(found);
+    }
+
+    /**
+     * Finds books whose key is close to the query even if it is misspelled. Books are ranked by the share of
+     * the query's trigrams their key contains, and shorter keys win ties. Candidates come from the query's
+     * rarest trigrams, and at most 10,000 are checked, so a query made of very common trigrams may miss some.
+     *
+     * @param query The normalized query.
+     * @param limit The most books to return.
+     * @return Up to limit similar books, best first.
+     */
+
+    public ArrayList<Book> similar(String query, int limit) {
+        ArrayList<Book> result = new ArrayList<>();
+        int[] wanted = query == null ? new int[0] : trigrams(query);
+        if (wanted.length == 0 || limit <= 0) {
+            return result;
+        }
+        requireWords();
+        int needed = (int) Math.ceil(wanted.length * MIN_SIMILARITY);
+
+        // A key with needed of the query's trigrams has at least one of any wanted.length - needed + 1 of them,
+        // so only the lists of that many of the rarest are walked, and common trigrams are never read
+        Postings[] lists = new Postings[wanted.length];
+        for (int i = 0; i < wanted.length; i++) {
+            lists[i] = byTrigram.get(wanted[i]);
+        }
+        Arrays.sort(lists, Comparator.comparingInt((Postings postings) -> postings == null ? 0 : postings.size));
+        IdMap<Boolean> seen = new IdMap<>();
+        ArrayList<Integer> candidates = new ArrayList<>();
+        for (int i = 0; i <= wanted.length - needed && candidates.size() < MAX_CANDIDATES; i++) {
+            if (lists[i] != null) {
+                lists[i].collect(seen, candidates, MAX_CANDIDATES);
+            }
+        }
+
+        ArrayList<Match> matches = new ArrayList<>();
+        for (int bookId : candidates) {
+            Book book = books.apply(bookId);
+            if (book == null || !isFiled(book)) {
+                continue;
+            }
+            // Count again from the current key, since a re-added or renamed book may appear more than once in the arrays
+            String key = keyOf.apply(book);
+            int[] have = trigrams(key);
+            int shared = 0;
+            for (int trigram : wanted) {
+                if (indexOf(have, have.length, trigram) >= 0) {
+                    shared++;
+                }
+            }
+            if (shared >= needed) {
+                matches.add(new Match(book, key, (double) shared / wanted.length));
+            }
+        }
+        matches.sort(Comparator.comparingDouble((Match m) -> -m.score).thenComparingInt(m -> m.key.length()).thenComparingInt(m -> m.book.getBookId()));
+        for (int i = 0; i < matches.size() && i < limit; i++) {
+            result.add(matches.get(i).book);
+        }
+        return result;
+    }
+
+    // Adds books from the sorted range of whole keys that start with prefix. Returns true once limit books have been found.
+
+    private boolean collect(NavigableSet<String> range, String prefix, Set<Book> found, int limit) {
+        for (String key : range) {
+            if (!key.startsWith(prefix)) {
+                break;
+            }
+            BookIds bucket = bucket(key);
+            for (int i = 0; i < bucket.size(); i++) {
+                Book book = books.apply(bucket.get(i));
+                if (book == null) {
+                    continue;
+                }
+                found.add(book);
+                if (found.size() >= limit) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // True if the book is filed under the key it has now.
+
+    private boolean isFiled(Book book) {
+        return bucket(keyOf.apply(book)).contains(book.getBookId());
+    }
+
+    private void requireWords() {
+        if (sortedKeys == null) {
+            throw new IllegalStateException("Prefix and typo-tolerant searches need buildWords first");
+        }
+    }
+
+    private void fileWords(int bookId, String key) {
+        fileWords(bookId, key, byWord::get, byWord::put, byTrigram, null);
+    }
+
+    // Files a book's words and trigrams, noting any new arrays in created if it isn't null.
+
+    private static void fileWords(int bookId, String key, Function<String, Postings> word,
+            BiConsumer<String, Postings> newWord, IdMap<Postings> byTrigram, List<Postings> created) {
+        for (String w : words(key)) {
+            Postings postings = word.apply(w);
+            if (postings == null) {
+                postings = new Postings();
+                newWord.accept(w, postings);
+            }
+            postings.add(bookId);
+        }
+        for (int trigram : trigrams(key)) {
+            Postings postings = byTrigram.get(trigram);
+            if (postings == null) {
+                postings = new Postings();
+                byTrigram.put(trigram, postings);
+                if (created != null) {
+                    created.add(postings);
+                }
+            }
+            postings.add(bookId);
+        }
+    }
+
+    // Splits a key into its words: runs of letters and digits.
+
+    static List<String> words(String key) {
+        List<String> words = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= key.length(); i++) {
+            boolean inWord = i < key.length() && Character.isLetterOrDigit(key.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                words.add(key.substring(start, i));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    // The distinct trigrams of a key's words, each word padded with a space on both sides so short words
+    // and word boundaries count too. Three characters below U+0400 pack exactly into 30 bits; rarer ones
+    // are hashed into the upper half, where a collision only costs an extra candidate to check.
+
+    static int[] trigrams(String key) {
+        int[] trigrams = new int[key.length() + 2];
+        int count = 0;
+        char first = ' ';
+        char second = ' ';
+        for (int i = 0; i <= key.length(); i++) {
+            char c = i < key.length() ? key.charAt(i) : ' ';
+            if (!Character.isLetterOrDigit(c)) {
+                c = ' ';
+            }
+            if (c == ' ' && second == ' ') {
+                first = ' ';
+                continue; // Between words
+            }
+            if (second != ' ') {
+                int trigram = pack(first, second, c);
+                if (indexOf(trigrams, count, trigram) < 0) {
+                    trigrams[count++] = trigram;
+                }
+            }
+            first = second;
+            second = c;
+        }
+        return Arrays.copyOf(trigrams, count);
+    }
+
+    private static int pack(char first, char second, char third) {
+        if ((first | second | third) < 0x400) {
+            return first << 20 | second << 10 | third;
+        }
+        return 1 << 30 | (((first * 31) + second) * 31 + third) & 0x3FFFFFFF;
+    }
+
+    private static int indexOf(int[] values, int size, int value) {
+        for (int i = 0; i < size; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // The IDs of the books that have one word or trigram, in a growable array.
+
+    private static final class Postings {
+
+        private int[] ids = new int[4];
+        private int size;
+
+        void add(int bookId) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = bookId;
+        }
+
+        // Notes each book not seen yet as a candidate, stopping once there are max of them.
+
+        void collect(IdMap<Boolean> seen, List<Integer> candidates, int max) {
+            int[] ids = this.ids;
+            int size = Math.min(this.size, ids.length);
+            for (int i = 0; i < size && candidates.size() < max; i++) {
+                if (seen.put(ids[i], Boolean.TRUE) == null) {
+                    candidates.add(ids[i]);
+                }
+            }
+        }
+    }
+
+    private static final class Match {
+
+        final Book book;
+        final String key;
+        final double score;
+
+        Match(Book book, String key, double score) {
+            this.book = book;
+            this.key = key;
+            this.score = score;
+        }
+    }
+}
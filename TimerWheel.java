@@ -0,0 +1,218 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Deadlines kept in a hierarchical timing wheel, so scheduling and cancelling are constant time and finding
+ * what has expired never looks at the timers that haven't.
+ *
+ * Time is cut into ticks. The wheel has a few levels, each a ring of the same number of slots: a slot of
+ * the lowest level spans one tick, and a slot of each level above spans a whole turn of the level below.
+ * A timer goes in the lowest level whose turn reaches its deadline, in the slot its deadline falls in.
+ * Advancing the wheel visits only the lowest level's slots for the ticks that have passed, which hold
+ * nothing but timers due then. When the lowest level starts a new turn, the next slot of the level above
+ * is emptied and its timers are placed again, now in a lower level, and so on up. A timer is so moved at
+ * most once per level, however far away its deadline is; one beyond the top level's turn is placed again
+ * each time its top slot comes round. Deadlines are only as precise as a tick: a timer expires on the
+ * first advance at or after the end of its tick.
+ *
+ * Time must not go backwards between calls. The wheel is thread safe. Its lock is only held to link, unlink or collect timers, so callers can act on
+ * the expired items after advance returns without holding it.
+ *
+ * @param <T> The type of the items timed.
+ */
+
+class TimerWheel<T> {
+
+    private static final int LEVELS = 3;
+
+    private final long tickMillis;
+    private final Timer<T>[][] slots;
+    private final int bits;
+    private final int mask;
+
+    // The first tick not yet advanced past, and the number of timers scheduled. Ticks count from the epoch,
+    // so before the first advance every timer lands in the top level, and the first advance places them all again.
+
+    private long nextTick;
+    private int size;
+
+    /**
+     * Constructs a TimerWheel.
+     *
+     * @param tickMillis The length of a tick in milliseconds.
+     * @param slotCount  The number of slots in each level, rounded up to a power of two.
+     */
+
+    @SuppressWarnings("unchecked")
+    TimerWheel(long tickMillis, int slotCount) {
+        if (tickMillis <= 0 || slotCount <= 0) {
+            throw new IllegalArgumentException("Ticks and slots must be positive");
+        }
+        int slotsRounded = Integer.highestOneBit(Math.max(1, slotCount - 1)) << 1;
+        this.tickMillis = tickMillis;
+        this.slots = (Timer<T>[][]) new Timer<?>[LEVELS][slotsRounded];
+        this.bits = Integer.numberOfTrailingZeros(slotsRounded);
+        this.mask = slotsRounded - 1;
+    }
+
+    /**
+     * Schedules an item to expire at a deadline. A deadline already past expires on the next advance.
+     *
+     * @param item           The item.
+     * @param deadlineMillis The deadline in milliseconds.
+     * @return The timer, for cancel.
+     */
+
+    synchronized Timer<T> schedule(T item, long deadlineMillis) {
+        Timer<T> timer = new Timer<>(item, Math.max(deadlineMillis / tickMillis, nextTick));
+        place(timer);
+        timer.scheduled = true;
+        size++;
+        return timer;
+    }
+
+    /**
+     * Cancels a timer.
+     *
+     * @param timer The timer.
+     * @return True if the timer was cancelled, false if it had already expired or been cancelled.
+     */
+
+    synchronized boolean cancel(Timer<T> timer) {
+        if (!timer.scheduled) {
+            return false;
+        }
+        unlink(timer);
+        timer.scheduled = false;
+        size--;
+        return true;
+    }
+
+    /**
+     * Advances the wheel to the given time and takes out the timers that expired.
+     *
+     * @param nowMillis The current time in milliseconds.
+     * @return The items whose deadline has passed.
+     */
+
+    synchronized List<T> advance(long nowMillis) {
+        List<T> expired = new ArrayList<>();
+        long lastTick = nowMillis / tickMillis - 1; // The tick now is in hasn't ended yet
+        if (lastTick < nextTick) {
+            return expired;
+        }
+        if (lastTick - nextTick > mask) {
+            // A gap longer than a turn of the lowest level: one pass over every timer is cheaper than every tick
+            replaceAll(lastTick, expired);
+            return expired;
+        }
+        for (long tick = nextTick; tick <= lastTick && size > 0; tick++) {
+            nextTick = tick;
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((tick & ((1L << (bits * level)) - 1)) == 0) {
+                    Timer<T> timer = take(level, (int) ((tick >>> (bits * level)) & mask));
+                    while (timer != null) {
+                        Timer<T> next = timer.next;
+                        place(timer);
+                        timer = next;
+                    }
+                }
+            }
+            // Timers are only placed in the lowest level within a turn of their tick, so the slot holds nothing else
+            Timer<T> timer = take(0, (int) (tick & mask));
+            while (timer != null) {
+                Timer<T> next = timer.next;
+                timer.scheduled = false;
+                size--;
+                expired.add(timer.item);
+                timer = next;
+            }
+        }
+        nextTick = lastTick + 1;
+        return expired;
+    }
+
+    // Takes out every timer, expires those due by lastTick and places the rest again from the tick after it.
+
+    private void replaceAll(long lastTick, List<T> expired) {
+        List<Timer<T>> pending = new ArrayList<>(size);
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot <= mask; slot++) {
+                for (Timer<T> timer = take(level, slot); timer != null; timer = timer.next) {
+                    pending.add(timer);
+                }
+            }
+        }
+        nextTick = lastTick + 1;
+        for (Timer<T> timer : pending) {
+            if (timer.tick <= lastTick) {
+                timer.scheduled = false;
+                size--;
+                expired.add(timer.item);
+            } else {
+                place(timer);
+            }
+        }
+    }
+
+    // Links a timer into the lowest level whose turn from nextTick reaches its tick, or the top level if none does.
+
+    private void place(Timer<T> timer) {
+        long delta = timer.tick - nextTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >>> (bits * (level + 1)) != 0) {
+            level++;
+        }
+        timer.level = level;
+        timer.slot = (int) ((timer.tick >>> (bits * level)) & mask);
+        timer.previous = null;
+        timer.next = slots[level][timer.slot];
+        if (timer.next != null) {
+            timer.next.previous = timer;
+        }
+        slots[level][timer.slot] = timer;
+    }
+
+    // Empties a slot and returns its timers, still linked to each other through next.
+
+    private Timer<T> take(int level, int slot) {
+        Timer<T> first = slots[level][slot];
+        slots[level][slot] = null;
+        return first;
+    }
+
+    private void unlink(Timer<T> timer) {
+        if (timer.previous != null) {
+            timer.previous.next = timer.next;
+        } else {
+            slots[timer.level][timer.slot] = timer.next;
+        }
+        if (timer.next != null) {
+            timer.next.previous = timer.previous;
+        }
+        timer.next = null;
+        timer.previous = null;
+    }
+
+    /**
+     * One scheduled item, linked into the slot it is in.
+     *
+     * @param <T> The type of the item.
+     */
+
+    static final class Timer<T> {
+
+        private final T item;
+        private final long tick;
+        private int level;
+        private int slot;
+        private Timer<T> next;
+        private Timer<T> previous;
+        private boolean scheduled;
+
+        private Timer(T item, long tick) {
+            this.item = item;
+            this.tick = tick;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates executors and thread factories backed by virtual threads.
+ * Virtual threads are looked up at runtime so the code still runs on JDKs that predate them,
+ * where daemon platform threads are used instead.
+ */
+
+public final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * Creates an executor that starts a new virtual thread for every task.
+     *
+     * @param name The prefix used to name the fallback platform threads.
+     * @return The executor.
+     */
+
+    public static ExecutorService newExecutor(String name) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(daemonThreads(name));
+        }
+    }
+
+    /**
+     * Creates a thread factory for named virtual threads, or for named daemon platform threads on JDKs
+     * that predate virtual threads.
+     *
+     * @param name The prefix for the thread names.
+     * @return The thread factory.
+     */
+
+    public static ThreadFactory newThreadFactory(String name) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> type = Class.forName("java.lang.Thread$Builder");
+            builder = type.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+            return (ThreadFactory) type.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return daemonThreads(name);
+        }
+    }
+
+    /**
+     * Creates a thread factory for named daemon platform threads.
+     *
+     * @param name The prefix for the thread names.
+     * @return The thread factory.
+     */
+
+    public static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger(1);
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}